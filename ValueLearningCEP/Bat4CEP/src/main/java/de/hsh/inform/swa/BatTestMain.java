@@ -46,10 +46,16 @@ import de.hsh.inform.swa.cep.operators.events.AndEventOperator;
 import de.hsh.inform.swa.cep.operators.events.NotEventOperator;
 import de.hsh.inform.swa.cep.operators.events.SequenceEventOperator;
 import de.hsh.inform.swa.cep.windows.TimeWindow;
+import de.hsh.inform.swa.evaluation.CacheEvictionEnum;
+import de.hsh.inform.swa.evaluation.EvaluatorEnum;
+import de.hsh.inform.swa.evaluation.esper.EsperEnginePool;
+import de.hsh.inform.swa.evaluation.esper.StatementBudget;
 import de.hsh.inform.swa.util.EventHandler;
 import de.hsh.inform.swa.util.IndividualLogsCSV;
 import de.hsh.inform.swa.util.LogCSV;
+import de.hsh.inform.swa.util.RacingSchedule;
 import de.hsh.inform.swa.util.SimpleLogger;
+import de.hsh.inform.swa.util.StreamReduction;
 import de.hsh.inform.swa.util.data.AttributeConfig;
 import de.hsh.inform.swa.util.data.DataCreator;
 import de.hsh.inform.swa.util.data.DataCreatorConfig;
@@ -72,6 +78,20 @@ public class BatTestMain {
 
     private final static int TEST_RUNS = 10;
     private static final int NUMBER_OF_THREADS = 5;
+    private static final EvaluatorEnum EVALUATOR = EvaluatorEnum.ESPER;
+    // 0 evaluates every rule anew, e.g. 100000 caches the results of that many rules across all runs
+    private static final int FITNESS_CACHE_SIZE = 0;
+    private static final CacheEvictionEnum FITNESS_CACHE_EVICTION = CacheEvictionEnum.LRU;
+    // null evaluates every rule on the whole event stream, e.g. RacingSchedule.successiveHalving(3, 4, NUMBER_OF_THREADS) races over 1/16 and 1/4 of it
+    private static final RacingSchedule RACING_SCHEDULE = null;
+    // null trains on the whole event stream, e.g. new StreamReduction(300_000, 0.1, 1) keeps 5 minutes before each complex event and 10% of the rest
+    private static final StreamReduction STREAM_REDUCTION = null;
+    // null never cancels a statement of the Esper training, e.g. new StatementBudget(10000, 1_000_000) cancels statements with more active sub-expressions or matches
+    private static final StatementBudget STATEMENT_BUDGET = null;
+    // false keeps the constants the search found, true sweeps over all values of each constant of every new best solution (an extra replay per constant)
+    private static final boolean CONSTANT_SWEEP = false;
+    // false keeps the window the search converged on, true replaces the window of the best solution by the best one of a sweep over the window range
+    private static final boolean WINDOW_SWEEP = false;
     
     //bat default config
     private final static int DEFAULT_SWARM_SIZE = 200;	
@@ -208,6 +228,7 @@ public class BatTestMain {
 
         IndividualLogsCSV individualCSV = new IndividualLogsCSV(folderName + File.separator + dateFormat.format(date) + "_individual.csv");
         LogCSV csv = new LogCSV(folderName + File.separator + dateFormat.format(date) + ".csv");
+        EsperEnginePool enginePool = new EsperEnginePool(); // engines are shared by all test cases
 
         for (BatTestCase t : tests) {
         	System.out.println(t.getTrainingData().getData());
@@ -216,16 +237,17 @@ public class BatTestMain {
             List<Event> eventsTraining = allEvents.getFirst();
             List<Event> eventsHoldout = allEvents.getSecond();
 
-            List<RunResult> results = executeTest(t, folderName, eventsTraining, eventsHoldout);
+            List<RunResult> results = executeTest(t, folderName, eventsTraining, eventsHoldout, enginePool);
             individualCSV.addRuns(results);
             csv.addRuns(t, results, eventsTraining, eventsHoldout);
         	
         }
+        enginePool.destroy();
         csv.close();
         individualCSV.close();
     }
 
-    public static List<RunResult> executeTest(BatTestCase test, String logFolder, List<Event> eventsTraining, List<Event> eventsHoldout) throws FileNotFoundException {
+    public static List<RunResult> executeTest(BatTestCase test, String logFolder, List<Event> eventsTraining, List<Event> eventsHoldout, EsperEnginePool enginePool) throws FileNotFoundException {
         Date date = new Date();
         SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH-mm-ss");
 
@@ -275,7 +297,7 @@ public class BatTestMain {
         BatConfig config = test.getBatConfig();
         log.flush();
 
-        List<RunResult> result = Bat4CEP.execute(config, eventsTraining, eventsHoldout, complex_event, test.getNumRuns(), test.getMaxECTHeight(), test.getMaxACTHeight(), log, NUMBER_OF_THREADS);
+        List<RunResult> result = Bat4CEP.execute(config, eventsTraining, eventsHoldout, complex_event, test.getNumRuns(), test.getMaxECTHeight(), test.getMaxACTHeight(), log, NUMBER_OF_THREADS, EVALUATOR, FITNESS_CACHE_SIZE, FITNESS_CACHE_EVICTION, RACING_SCHEDULE, STREAM_REDUCTION, STATEMENT_BUDGET, CONSTANT_SWEEP, WINDOW_SWEEP, enginePool);
         log.close();
         return result;
     }
@@ -7,10 +7,6 @@ import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.ExecutionException;
 
-import com.espertech.esper.client.Configuration;
-import com.espertech.esper.client.EPServiceProvider;
-import com.espertech.esper.client.EPServiceProviderManager;
-
 import de.hsh.inform.swa.bat4cep.bat.Bat;
 import de.hsh.inform.swa.bat4cep.bat.BatAlgorithm;
 import de.hsh.inform.swa.bat4cep.bat.SwarmInitializer;
@@ -21,13 +17,21 @@ import de.hsh.inform.swa.bat4cep.util.BatConfig;
 import de.hsh.inform.swa.bat4cep.util.RunResult;
 import de.hsh.inform.swa.cep.Action;
 import de.hsh.inform.swa.cep.Event;
+import de.hsh.inform.swa.evaluation.CacheEvictionEnum;
+import de.hsh.inform.swa.evaluation.CachingRuleEvaluator;
 import de.hsh.inform.swa.evaluation.EvaluationMeasures;
 import de.hsh.inform.swa.evaluation.EvaluationResult;
+import de.hsh.inform.swa.evaluation.EvaluatorEnum;
 import de.hsh.inform.swa.evaluation.RuleEvaluator;
+import de.hsh.inform.swa.evaluation.esper.EsperEnginePool;
 import de.hsh.inform.swa.evaluation.esper.EsperEvaluator;
-import de.hsh.inform.swa.evaluation.esper.EventHandlerUtils;
+import de.hsh.inform.swa.evaluation.esper.MatchTupleCache;
+import de.hsh.inform.swa.evaluation.esper.StatementBudget;
+import de.hsh.inform.swa.evaluation.matcher.MatcherEvaluator;
 import de.hsh.inform.swa.util.EventHandler;
+import de.hsh.inform.swa.util.RacingSchedule;
 import de.hsh.inform.swa.util.SimpleLogger;
+import de.hsh.inform.swa.util.StreamReduction;
 import de.hsh.inform.swa.util.TimeUtils;
 import de.hsh.inform.swa.util.builder.WindowBuilder;
 
@@ -43,23 +47,52 @@ import de.hsh.inform.swa.util.builder.WindowBuilder;
 public class Bat4CEP {
     private static final ChronoUnit WINDOW_TIME_UNIT = ChronoUnit.SECONDS;
     private static final int MIN_WINDOW_LENGTH = 1;
+    private static final long MATCH_TUPLE_CACHE_SIZE = 1 << 24; // line numbers per event stream, 64 MB
     
     public static List<RunResult> execute(BatConfig config, List<Event> events, List<Event> events_holdout, Event complexEvent, int numRuns,
-            int maxECTHeight, int maxACTHeight, SimpleLogger log, int numberOfThreads) {
+            int maxECTHeight, int maxACTHeight, SimpleLogger log, int numberOfThreads, EvaluatorEnum evaluator, int fitnessCacheSize, CacheEvictionEnum cacheEviction, RacingSchedule racing,
+            StreamReduction reduction, StatementBudget budget, boolean constantSweep, boolean windowSweep, EsperEnginePool enginePool) {
 	
         long totalStartTime = System.currentTimeMillis();
         
         //test data
         EventHandler ehTest = new EventHandler(events_holdout, complexEvent);
-        RuleEvaluator validationTest = ruleEvaluatorInit(ehTest, 1); //one thread for test validation
+        // the matcher replays the single rule of the test validation in time shards on all threads, Esper needs one engine per rule
+        RuleEvaluator validationTest = ruleEvaluatorInit(ehTest, evaluator == EvaluatorEnum.MATCHER ? numberOfThreads : 1, evaluator, enginePool);
         
         //training data
         EventHandler ehTraining = new EventHandler(events, complexEvent);
-        RuleEvaluator validationTraining = ruleEvaluatorInit(ehTraining, numberOfThreads);  
+        int maxWindowLength = ehTraining.getWithoutComplexEvent().size();
+        long maxWindowTime = TimeUtils.getMaximumTimeDistance(ehTraining.getWithoutComplexEvent(), WINDOW_TIME_UNIT);
+        long minWindowTime = TimeUtils.getMinimumTimeDistance(ehTraining.getWithoutComplexEvent(), WINDOW_TIME_UNIT);
+        if (reduction != null) {
+        	// the training sees the complex events with their horizon and a sample of the rest, so no window may exceed the horizon.
+        	// Esper interprets the value of a length window as seconds as well.
+        	long horizon = reduction.getHorizonMillis() / WINDOW_TIME_UNIT.getDuration().toMillis();
+        	if (horizon <= MIN_WINDOW_LENGTH || horizon <= minWindowTime) { // the windows of the bats are drawn below the horizon
+        		throw new IllegalArgumentException(String.format("Horizon too short for the shortest window (%s): %d %s, shortest window %d events and %d %s",
+        				reduction, horizon, WINDOW_TIME_UNIT, MIN_WINDOW_LENGTH, minWindowTime, WINDOW_TIME_UNIT));
+        	}
+        	ehTraining = reduction.reduce(ehTraining);
+        	maxWindowLength = (int) Math.min(maxWindowLength, horizon);
+        	maxWindowTime = Math.min(maxWindowTime, horizon);
+        	log.println(String.format(Locale.ENGLISH, "%s: %d of %d events, a sampled event stands for %.2f events", reduction, ehTraining.getEventDataSize(),
+        			events.size(), ehTraining.getSampleWeight()));
+        }
+        RuleEvaluator validationTraining = ruleEvaluatorInit(ehTraining, numberOfThreads, evaluator, enginePool);  
+        RuleEvaluator trainingEngine = validationTraining;
+        if (budget != null && trainingEngine instanceof EsperEvaluator) { // pathological rules are cancelled and get a result without hits
+        	((EsperEvaluator) trainingEngine).setStatementBudget(budget, null);
+        	log.println(budget.toString());
+        }
+        if (racing != null) {
+        	log.println(racing.toString());
+        }
+        if (fitnessCacheSize > 0) { // results remain valid across runs, since all runs use the same training data
+        	validationTraining = new CachingRuleEvaluator(validationTraining, ehTraining, fitnessCacheSize, cacheEviction);
+        }
                     
-        WindowBuilder wb = new WindowBuilder(MIN_WINDOW_LENGTH, ehTraining.getWithoutComplexEvent().size(), 
-        		TimeUtils.getMinimumTimeDistance(ehTraining.getWithoutComplexEvent(), WINDOW_TIME_UNIT),
-                TimeUtils.getMaximumTimeDistance(ehTraining.getWithoutComplexEvent(), WINDOW_TIME_UNIT), WINDOW_TIME_UNIT);
+        WindowBuilder wb = new WindowBuilder(MIN_WINDOW_LENGTH, maxWindowLength, minWindowTime, maxWindowTime, WINDOW_TIME_UNIT);
 
          	        
         PointUpdate pu = new PointUpdate(wb, ehTraining.getEventTypes(), ehTraining, maxECTHeight, maxACTHeight);
@@ -76,7 +109,7 @@ public class Bat4CEP {
             Bat[] swarm = SwarmInitializer.initSwarm(config.getSwarmSize(), true, populationInit, validationTraining, maxECTHeight, maxACTHeight);
             
             try {
-                fly(config, swarm, ehTraining, wb, validationTraining, pu, log);
+                fly(config, swarm, ehTraining, wb, validationTraining, pu, racing, constantSweep, windowSweep, log);
             } catch (InterruptedException | ExecutionException e) {
                 System.err.println("Execution failed:" + e.getMessage());
                 e.printStackTrace();
@@ -87,6 +120,15 @@ public class Bat4CEP {
 
             Duration duration = Duration.ofMillis(System.currentTimeMillis() - startTime);
             log.println("Duration in ISO-8601 format: " + duration.toString());
+            if (validationTraining instanceof CachingRuleEvaluator) {
+            	log.println(((CachingRuleEvaluator) validationTraining).getCache().toString());
+            }
+            if (trainingEngine instanceof EsperEvaluator) {
+            	log.println(((EsperEvaluator) trainingEngine).getReplayDriver().toString());
+            	if (((EsperEvaluator) trainingEngine).getMatchTuples() != null) {
+            		log.println(((EsperEvaluator) trainingEngine).getMatchTuples().toString());
+            	}
+            }
             
             EvaluationResult testDataResult = validationTest.evaluateRule(bestBat.getSolution());
 
@@ -105,6 +147,7 @@ public class Bat4CEP {
             
 
         }
+        // gives the engines back to the pool
         validationTraining.destroy();
         validationTest.destroy();
         
@@ -119,26 +162,20 @@ public class Bat4CEP {
 
     }
     /**
-     * Initializes the esper engine.
+     * Initializes the esper engine or the native pattern matcher.
      * @param eventHandler
      * @param number of parallel threads.A good indicator is the number of CPU cores.
+     * @param evaluator backend that evaluates the rules
+     * @param enginePool pool that provides the Esper engines
      * @return evaluation unit
      */
-    private static RuleEvaluator ruleEvaluatorInit(EventHandler eventHandler, int threads) {
-        Configuration configuration = EventHandlerUtils.toEsperConfiguration(eventHandler);
-        configuration.getEngineDefaults().getThreading().setThreadPoolOutbound(true);
-        configuration.getEngineDefaults().getThreading().setThreadPoolOutboundNumThreads(4);	
-        configuration.getEngineDefaults().getViewResources().setShareViews(false);
-        configuration.getEngineDefaults().getThreading().setListenerDispatchPreserveOrder(false);
-        
-        EPServiceProvider[] epServiceProviders = new EPServiceProvider[threads];
-        for (int i = 0; i < threads; i++) {
-            System.out.print("\rInitialization of Esper Engine :" + (int) Math.round(((1.0 * i) / (threads - 1)) * 100) + "%");
-            epServiceProviders[i] = EPServiceProviderManager.getProvider(eventHandler.hashCode() + "_Engine" + i, configuration);
+    private static RuleEvaluator ruleEvaluatorInit(EventHandler eventHandler, int threads, EvaluatorEnum evaluator, EsperEnginePool enginePool) {
+        if (evaluator == EvaluatorEnum.MATCHER) {
+            return new MatcherEvaluator(eventHandler, threads);
+        } else if (evaluator == EvaluatorEnum.ESPER_MATCH_STORE) {
+            return new EsperEvaluator(eventHandler, enginePool, threads, new MatchTupleCache(MATCH_TUPLE_CACHE_SIZE));
         }
-        System.out.println();
-
-        return new EsperEvaluator(eventHandler, epServiceProviders);
+        return new EsperEvaluator(eventHandler, enginePool, threads);
     }
     
 
@@ -146,11 +183,12 @@ public class Bat4CEP {
      * Let the bats fly.
      * @return Sorted list of all bats in the swarm. The better a bat, the lower the index. Therefore, the best bat is located at the first index position.
      */
-    private static ArrayList<Bat> fly(BatConfig config, Bat[] swarm, EventHandler eh, WindowBuilder wb, RuleEvaluator re, PointUpdate pu, SimpleLogger log)
+    private static ArrayList<Bat> fly(BatConfig config, Bat[] swarm, EventHandler eh, WindowBuilder wb, RuleEvaluator re, PointUpdate pu, RacingSchedule racing,
+            boolean constantSweep, boolean windowSweep, SimpleLogger log)
             throws InterruptedException, ExecutionException {
         ArrayList<Bat> solutions = new ArrayList<>();
         BatAlgorithm batSwarm = new BatAlgorithm(swarm, eh, wb, re, pu, config.getSwarmSize(), config.getTimesteps(), config.getLoudness(), config.getAlpha(),
-                config.getMaxFrequency(), config.getMinFrequency(), config.getPulserate(), config.getGamma(), log);
+                config.getMaxFrequency(), config.getMinFrequency(), config.getPulserate(), config.getGamma(), racing, constantSweep, windowSweep, log);
         solutions.addAll(batSwarm.execute());
         return solutions;
     }
@@ -5,6 +5,8 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -15,12 +17,15 @@ import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import de.hsh.inform.swa.bat4cep.bat.update.PointUpdate;
+import de.hsh.inform.swa.cep.CanonicalRule;
 import de.hsh.inform.swa.cep.Rule;
 import de.hsh.inform.swa.evaluation.RuleEvaluator;
 import de.hsh.inform.swa.evaluation.RuleWithFitness;
 import de.hsh.inform.swa.util.EventHandler;
 import de.hsh.inform.swa.util.FitnessHelper;
+import de.hsh.inform.swa.util.RacingSchedule;
 import de.hsh.inform.swa.util.SimpleLogger;
+import de.hsh.inform.swa.util.builder.AttributeConditionTreeBuilder;
 import de.hsh.inform.swa.util.builder.WindowBuilder;
 /**
  * Core Class.
@@ -42,11 +47,17 @@ public class BatAlgorithm {
     private final EventHandler eh;
     private final PointUpdate pu;
     private final RuleEvaluator evaluator;
+    private final RacingSchedule racing; // null: every rule is evaluated on the whole event stream
+    private final boolean constantSweep; // false: the constants of the best solution are only changed by the search
+    private final boolean windowSweep; // false: the best solution keeps the window the search converged on
 
 	private final SimpleLogger log;
+	private long dominatedRules; // rules whose evaluation was stopped because they could not beat their bat
+	private long eliminatedRules; // rules that dropped out of the racing evaluation before the whole event stream
 
     public BatAlgorithm(Bat[] swarm, EventHandler eh, WindowBuilder wb, RuleEvaluator evaluator, PointUpdate pu, int swarmSize, int timesteps, double loudness,
-            double alpha, double maxFrequency, double minFrequency, double pulserate, double gamma, SimpleLogger log) {
+            double alpha, double maxFrequency, double minFrequency, double pulserate, double gamma, RacingSchedule racing, boolean constantSweep,
+            boolean windowSweep, SimpleLogger log) {
         this.eh = eh;
         this.SWARM = swarm;
         this.LOUDNESS = loudness;
@@ -58,6 +69,9 @@ public class BatAlgorithm {
         this.TIMESTEPS = timesteps;
         this.pu = pu;
         this.evaluator = evaluator;
+        this.racing = racing;
+        this.constantSweep = constantSweep;
+        this.windowSweep = windowSweep;
         this.log = log;
     }
 
@@ -105,6 +119,9 @@ public class BatAlgorithm {
         measureFitness();
         
         long sum_rules=0;
+        dominatedRules = 0;
+        eliminatedRules = 0;
+        Bat sweptBat = null;
         //step 1: generate
         for (int t = 1; t <= TIMESTEPS; t++) {
         	Map<Integer, List<Bat>> resultsRandomFlight = new HashMap<>();
@@ -141,11 +158,24 @@ public class BatAlgorithm {
             
             //look for the best bat
             Bat bestBat = null;
+            int bestIndex = -1;
             for(int i=0; i<ELITE.size();i++) {
             	if(bestBat==null || ELITE.get(i).getSolution().getTotalFitness()>bestBat.getSolution().getTotalFitness()) {
             		bestBat = ELITE.get(i);
+            		bestIndex = i;
             	}
             }
+            //the constants of a new best solution are chosen from a sweep over all values instead of a random sample.
+            //The sweep works on a copy, which only replaces the best solution if it is better.
+            if (constantSweep && bestBat != sweptBat) {
+                Bat swept = bestBat.copy();
+                pu.bestConstantUpdate(swept.getSolution(), evaluator);
+                if (swept.getSolution().getTotalFitness() > bestBat.getSolution().getTotalFitness()) {
+                    ELITE.set(bestIndex, swept);
+                    bestBat = swept;
+                }
+                sweptBat = bestBat;
+            }
             log.println(String.format(Locale.US, "TIMESTEP: %03d - avg fitness of swarm: %.5f - current best solution: %s", t, avgFitness, bestBat.getSolution()));
             // terminate a run if a nearly perfect solution is found
             if (bestBat.getSolution().getTotalFitness() >= F1_NEARLY_PERFECT_MAXIMUM) {
@@ -154,9 +184,15 @@ public class BatAlgorithm {
             
             
         }
-        log.println(String.format("sum of all generated and evaluated rules: %s", sum_rules));
+        log.println(String.format("sum of all generated and evaluated rules: %s (stopped early as dominated: %s, eliminated by racing: %s)", sum_rules,
+                dominatedRules, eliminatedRules));
         Collections.sort(ELITE, BatCMP);
         Arrays.sort(SWARM, BatCMP);
+        //the window of the best solution is chosen from a sweep over the window range instead of a random sample
+        if (windowSweep) {
+            pu.bestWindowUpdate(SWARM[0].getSolution(), evaluator);
+            log.println(String.format("best solution after window sweep: %s", SWARM[0].getSolution()));
+        }
         return Arrays.asList(SWARM);
     }
     /**
@@ -170,14 +206,42 @@ public class BatAlgorithm {
     	allRules.addAll(mapRandomFlight.values().stream().flatMap(List::stream).map(bat -> bat.getSolution()).collect(Collectors.toCollection(ArrayList::new)));
     	allRules.addAll(mapLocalSearch.values().stream().map(bat -> bat.getSolution()).collect(Collectors.toCollection(ArrayList::new)));
 
-		//call the engine
-    	FitnessHelper.measureFitness(evaluator, allRules.toArray(new RuleWithFitness[allRules.size()]));
+    	//a rule only replaces its bat if it is at least as good, the fitness of the bat before this evaluation is a lower bound for that
+    	Map<RuleWithFitness, Double> mustBeat = new IdentityHashMap<>();
+    	mapRandomFlight.forEach((i, bats) -> bats.forEach(bat -> mustBeat.put(bat.getSolution(), SWARM[i].getSolution().getTotalFitness())));
+    	mapLocalSearch.forEach((i, bat) -> mustBeat.put(bat.getSolution(), SWARM[i].getSolution().getTotalFitness()));
+
+    	//rules with the same normal form lead to the same result, so each of them is passed to the engine only once
+    	Map<CanonicalRule, List<RuleWithFitness>> distinctRules = new LinkedHashMap<>();
+    	for (RuleWithFitness rule : allRules) {
+    		AttributeConditionTreeBuilder.repairAggregationWindowsInAct(rule, eh); // the engine would repair the rule anyway, but this changes its normal form
+    		distinctRules.computeIfAbsent(rule.getCanonicalForm(), k -> new ArrayList<>()).add(rule);
+    	}
+    	//the engine may stop a rule as soon as it can not beat the weakest of the bats it competes with
+    	Map<Rule, Double> thresholds = new IdentityHashMap<>();
+    	for (List<RuleWithFitness> rules : distinctRules.values()) {
+    		thresholds.put(rules.get(0), rules.stream().mapToDouble(mustBeat::get).min().getAsDouble());
+    	}
+		//call the engine. When racing, only the best rules of the prefixes are evaluated on the whole event stream
+    	FitnessHelper.measureFitness(evaluator, racing, thresholds, distinctRules.values().stream().map(rules -> rules.get(0)).toArray(RuleWithFitness[]::new));
+    	for (List<RuleWithFitness> rules : distinctRules.values()) {
+    		if (rules.get(0).conditionFitnessResult != null) {
+    			rules.forEach(rule -> rule.setCondition(rules.get(0).conditionFitnessResult));
+    			if (rules.get(0).conditionFitnessResult.isDominated()) {
+    				dominatedRules += rules.size();
+    			}
+    			if (rules.get(0).conditionFitnessResult.isApproximate()) {
+    				eliminatedRules += rules.size();
+    			}
+    		}
+    	}
     	int counter = 0;
     	//random flight: check if any bat got to a better position. If so, update the position of this bat.
+    	//Rules with an approximate result were not evaluated on the whole event stream and can not replace a bat.
     	for(int i=0; i<SWARM.length;i++) {
     		if(mapRandomFlight.containsKey(i)) {
     			for(Bat b: mapRandomFlight.get(i)) {
-    				if(allRules.get(counter).getTotalFitness()>=SWARM[i].getSolution().getTotalFitness()) {
+    				if(!allRules.get(counter).conditionFitnessResult.isApproximate() && allRules.get(counter).getTotalFitness()>=SWARM[i].getSolution().getTotalFitness()) {
     					b.setSolution(allRules.get(counter));
     					SWARM[i] = b.copy();
     				}
@@ -188,7 +252,7 @@ public class BatAlgorithm {
     	//local search: check if any bat got to a better position. If so, update the position of this bat.
     	for(int i=0; i<SWARM.length;i++) {
     		if(mapLocalSearch.containsKey(i)) {
-    			if(allRules.get(counter).getTotalFitness()>=SWARM[i].getSolution().getTotalFitness()) {
+    			if(!allRules.get(counter).conditionFitnessResult.isApproximate() && allRules.get(counter).getTotalFitness()>=SWARM[i].getSolution().getTotalFitness()) {
     				mapLocalSearch.get(i).setSolution(allRules.get(counter));
     				SWARM[i] = mapLocalSearch.get(i).copy();
     			}
@@ -1,15 +1,22 @@
 package de.hsh.inform.swa.bat4cep.bat.update;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ThreadLocalRandom;
 
 import de.hsh.inform.swa.cep.AttributeCondition;
+import de.hsh.inform.swa.cep.AttributeOperator;
+import de.hsh.inform.swa.cep.ConstantAttribute;
 import de.hsh.inform.swa.cep.Event;
 import de.hsh.inform.swa.cep.EventCondition;
 import de.hsh.inform.swa.cep.Rule;
 import de.hsh.inform.swa.cep.TemplateEvent;
 import de.hsh.inform.swa.cep.operators.attributes.logic.AndAttributeOperator;
+import de.hsh.inform.swa.cep.windows.Window;
+import de.hsh.inform.swa.evaluation.EvaluationMeasures;
+import de.hsh.inform.swa.evaluation.EvaluationResult;
+import de.hsh.inform.swa.evaluation.RuleEvaluator;
 import de.hsh.inform.swa.evaluation.RuleWithFitness;
 import de.hsh.inform.swa.util.EventHandler;
 import de.hsh.inform.swa.util.builder.AttributeConditionTreeBuilder;
@@ -22,6 +29,7 @@ import de.hsh.inform.swa.util.builder.WindowBuilder;
  *
  */
 public class PointUpdate {
+    private static final int WINDOW_SWEEP_CANDIDATES = 16;
 
     private final WindowBuilder wb;
     private final EventHandler eh;
@@ -86,6 +94,62 @@ public class PointUpdate {
         WindowUpdate.localRandomWindow(r, wb, radius);
     }
 
+    /**
+     * Sets the window with the best fitness among evenly spaced window values of the same kind, including the current window.
+     * All candidates are evaluated as one batch (see RuleEvaluator.evaluateWindows), the rule gets the ACT and result of the chosen candidate.
+     */
+    public void bestWindowUpdate(RuleWithFitness r, RuleEvaluator evaluator) {
+        Window current = r.getWindow();
+        List<Window> candidates = new ArrayList<>();
+        candidates.add(current.copy()); // first, so that the current window wins ties
+        long min = current.getMinValue();
+        long max = Math.max(min, current.getMaxValue());
+        for (int i = 0; i < WINDOW_SWEEP_CANDIDATES; i++) {
+            Window candidate = current.copy();
+            candidate.setValue(min + (max - min) * i / (WINDOW_SWEEP_CANDIDATES - 1));
+            if (!candidates.contains(candidate)) {
+                candidates.add(candidate);
+            }
+        }
+        Rule best = null;
+        EvaluationResult bestResult = null;
+        for (Map.Entry<Rule, EvaluationResult> result : evaluator.evaluateWindows(r, candidates).entrySet()) {
+            if (result.getValue() != null && (bestResult == null || EvaluationMeasures.f1Score(result.getValue()) > EvaluationMeasures.f1Score(bestResult))) {
+                best = result.getKey();
+                bestResult = result.getValue();
+            }
+        }
+        if (bestResult != null) {
+            r.setWindow(best.getWindow());
+            r.setAttributeConditionTreeRoot(best.getAttributeConditionTreeRoot());
+            r.setCondition(bestResult);
+        }
+    }
+
+    /**
+     * Sets the constant of each comparison in the ACT to the value with the best fitness, one comparison after the other.
+     * Each comparison is optimized with a single pass (see RuleEvaluator.optimizeConstant), the rule gets the result of the last one.
+     */
+    public void bestConstantUpdate(RuleWithFitness r, RuleEvaluator evaluator) {
+        AttributeCondition actRoot = r.getAttributeConditionTreeRoot();
+        if (actRoot == null) return;
+        List<AttributeOperator> comparisons = new ArrayList<>();
+        for (int i = 0; i < actRoot.getNumberOfNodes(); i++) {
+            Object node = ConditionTreeTraverser.getConditionWithPreOrderIndex(actRoot, i);
+            if (node instanceof AttributeOperator) {
+                AttributeOperator comparison = (AttributeOperator) node;
+                if (comparison.getOperands()[0] instanceof ConstantAttribute || comparison.getOperands()[1] instanceof ConstantAttribute) {
+                    comparisons.add(comparison);
+                }
+            }
+        }
+        for (AttributeOperator comparison : comparisons) {
+            EvaluationResult result = evaluator.optimizeConstant(r, comparison);
+            if (result == null) return;
+            r.setCondition(result);
+        }
+    }
+
     public void updateACT(Rule r, EventHandler eh) {
     	if(maxACTHeight == 0) return;
         AttributeCondition actRoot = r.getAttributeConditionTreeRoot();
@@ -0,0 +1,164 @@
+package de.hsh.inform.swa.cep;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.hsh.inform.swa.cep.operators.attributes.aggregation.AggregationAttribute;
+import de.hsh.inform.swa.cep.operators.attributes.logic.AndAttributeOperator;
+import de.hsh.inform.swa.cep.operators.attributes.logic.OrAttributeOperator;
+import de.hsh.inform.swa.cep.operators.events.AndEventOperator;
+import de.hsh.inform.swa.cep.operators.events.NotEventOperator;
+import de.hsh.inform.swa.cep.operators.events.OrEventOperator;
+/**
+ * Immutable normal form of a rule. Rules with the same normal form lead to the same evaluation results.
+ *
+ * The normal form is built as follows:
+ * (1) the operands of the commutative operators AND/OR in the ECT and AND/OR in the ACT are sorted
+ * (2) aliases are renamed in the order in which the events appear in the sorted ECT, the ACT refers to the renamed aliases
+ * (3) the window is included
+ *
+ * The 64-bit hash of the normal form is calculated once.
+ * Since ECT and ACT of a rule are modified in place, the normal form is a snapshot of the rule at the time it was created.
+ * @author Software Architecture Research Group
+ *
+ */
+public final class CanonicalRule {
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final String form;
+    private final long hash;
+
+    public CanonicalRule(Rule rule) {
+        Map<String, String> aliases = new HashMap<>();
+        StringBuilder sb = new StringBuilder();
+        new Node(rule.getEventConditionTreeRoot(), new HashMap<>()).append(sb, aliases, new HashMap<>());
+        sb.append(" within ").append(rule.getWindow() == null ? "-" : rule.getWindow().getClass().getSimpleName() + "(" + rule.getWindow() + ")");
+        if (rule.getAttributeConditionTreeRoot() != null) {
+            sb.append(" where ").append(toString(rule.getAttributeConditionTreeRoot(), aliases));
+        }
+        this.form = sb.toString();
+
+        long h = FNV_OFFSET_BASIS; // FNV-1a
+        for (int i = 0; i < form.length(); i++) {
+            h = (h ^ form.charAt(i)) * FNV_PRIME;
+        }
+        this.hash = h;
+    }
+
+    /*
+     * Node of the ECT with sorted operands.
+     * Events are immutable and may occur several times in an ECT, so the aliases are stored per node and not per event.
+     */
+    private static final class Node {
+        private final EventCondition condition;
+        private final String alias; // original alias, derived in the same way as in EventCondition.toStringWithAlias
+        private final List<Node> children = new ArrayList<>();
+        private final String key; // normal form without aliases, used to sort the operands
+
+        Node(EventCondition condition, Map<String, Integer> typeCounts) {
+            this.condition = condition;
+            if (condition instanceof Event) {
+                String type = ((Event) condition).getType();
+                int number = typeCounts.merge(type, 1, Integer::sum) - 1;
+                this.alias = type + number;
+                this.key = type;
+                return;
+            }
+            this.alias = null;
+            for (EventCondition child : condition.getSubconditions()) {
+                children.add(new Node(child, typeCounts));
+            }
+            if (condition instanceof AndEventOperator || condition instanceof OrEventOperator) {
+                children.sort(Comparator.comparing(node -> node.key)); // stable: equal operands keep their order
+            }
+            StringBuilder sb = new StringBuilder(condition.getClass().getSimpleName()).append('(');
+            for (Node child : children) {
+                sb.append(child.key).append(',');
+            }
+            if (condition instanceof NotEventOperator) {
+                sb.append('!').append(((NotEventOperator) condition).getNegatedEvent().getType());
+            }
+            this.key = sb.append(')').toString();
+        }
+
+        // emits the sorted ECT and renames the aliases in the order of appearance
+        void append(StringBuilder sb, Map<String, String> aliases, Map<String, Integer> typeCounts) {
+            if (alias != null) {
+                String type = ((Event) condition).getType();
+                String canonicalAlias = type + (typeCounts.merge(type, 1, Integer::sum) - 1);
+                aliases.put(alias, canonicalAlias);
+                sb.append(canonicalAlias).append('=').append(type);
+                return;
+            }
+            sb.append(condition.getClass().getSimpleName()).append('(');
+            for (Node child : children) {
+                child.append(sb, aliases, typeCounts);
+                sb.append(',');
+            }
+            if (condition instanceof NotEventOperator) {
+                sb.append('!').append(((NotEventOperator) condition).getNegatedEvent().getType());
+            }
+            sb.append(')');
+        }
+    }
+
+    private static String toString(AttributeCondition condition, Map<String, String> aliases) {
+        if (condition instanceof AttributeOperator) {
+            Attribute[] operands = ((AttributeOperator) condition).getOperands();
+            return condition.getClass().getSimpleName() + "(" + toString(operands[0], aliases) + "," + toString(operands[1], aliases) + ")";
+        }
+        AttributeCondition[] children = condition.getSubconditions();
+        String[] operands = new String[children.length];
+        for (int i = 0; i < children.length; i++) {
+            operands[i] = toString(children[i], aliases);
+        }
+        if (condition instanceof AndAttributeOperator || condition instanceof OrAttributeOperator) {
+            Arrays.sort(operands);
+        }
+        return condition.getClass().getSimpleName() + Arrays.toString(operands);
+    }
+
+    private static String toString(Attribute attribute, Map<String, String> aliases) {
+        if (attribute instanceof AttributeOperator) { // arithmetic operation
+            Attribute[] operands = ((AttributeOperator) attribute).getOperands();
+            return attribute.getClass().getSimpleName() + "(" + toString(operands[0], aliases) + "," + toString(operands[1], aliases) + ")";
+        } else if (attribute instanceof AggregationAttribute) {
+            return attribute.toString(); // refers to the event type, not to the alias
+        } else if (attribute instanceof EventAttribute) {
+            String alias = aliases.getOrDefault(attribute.getAlias(), "?" + attribute.getAlias());
+            return alias + "." + ((EventAttribute) attribute).getAttributeName();
+        }
+        return attribute.toString();
+    }
+
+    public String getForm() {
+        return form;
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(hash);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        CanonicalRule that = (CanonicalRule) o;
+        return hash == that.hash && form.equals(that.form);
+    }
+
+    @Override
+    public String toString() {
+        return form;
+    }
+}
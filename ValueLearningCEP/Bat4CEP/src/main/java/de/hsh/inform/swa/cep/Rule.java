@@ -63,11 +63,34 @@ public class Rule {
         return this.toString().equals(((Rule) o).toString());
     }
 
+    /**
+     * Consistent with equals. Rules are modified in place, so a rule must not be modified while it is a key of a map.
+     * Maps that collapse rules with the same normal form are keyed by a snapshot of the rule instead (see getCanonicalForm()).
+     */
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    /**
+     * @return normal form of the rule in its current state, a snapshot that is not affected by later modifications. See CanonicalRule.java.
+     */
+    public CanonicalRule getCanonicalForm() {
+        return new CanonicalRule(this);
+    }
+
     public String getPatternAsString() {
+    	return getPatternAsString(getEventConditionTreeRoot().toStringWithAlias(new HashSet<>()));
+    }
+
+    /**
+     * @param eventConditionTree pattern of the ECT, e.g. with additional filters
+     */
+    public String getPatternAsString(String eventConditionTree) {
     	if(getWindow() != null) {
-    		return String.format("every(%s) where timer:within(%s)", getEventConditionTreeRoot().toStringWithAlias(new HashSet<>()), getWindow());
+    		return String.format("every(%s) where timer:within(%s)", eventConditionTree, getWindow());
     	}
-    	return String.format("every(%s)", getEventConditionTreeRoot().toStringWithAlias(new HashSet<>()));
+    	return String.format("every(%s)", eventConditionTree);
     }
 
     public Rule copy() {
@@ -47,6 +47,10 @@ public class NotEventOperator extends EventCondition{
     private EventCondition getPattern() {
     	return getSubconditions()[0];
     }
+
+    public Event getNegatedEvent() {
+    	return negatedEvent;
+    }
     
     @Override
     public EventCondition[] getSubconditions() {
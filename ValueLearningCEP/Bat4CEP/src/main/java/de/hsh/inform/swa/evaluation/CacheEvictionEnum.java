@@ -0,0 +1,13 @@
+package de.hsh.inform.swa.evaluation;
+/**
+ * Enum class to choose which entry of a full fitness cache is dropped.
+ * LRU: the entry that was not requested for the longest time.
+ * LFU: the entry that was requested least often. Ties are broken by LRU.
+ *
+ * Is used by FitnessCache.java.
+ * @author Software Architecture Research Group
+ *
+ */
+public enum CacheEvictionEnum {
+	LRU, LFU
+}
@@ -0,0 +1,110 @@
+package de.hsh.inform.swa.evaluation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.hsh.inform.swa.cep.AttributeOperator;
+import de.hsh.inform.swa.cep.CanonicalRule;
+import de.hsh.inform.swa.cep.Rule;
+import de.hsh.inform.swa.util.EventHandler;
+import de.hsh.inform.swa.util.builder.AttributeConditionTreeBuilder;
+/**
+ * Evaluation unit that remembers the results of another evaluation unit.
+ * The bat algorithm evaluates many rules that were already evaluated in earlier timesteps,
+ * these rules are answered by the fitness cache and are not passed to the engine again.
+ * Rules with the same normal form (see CanonicalRule.java) are only passed once.
+ * Dominated results (see EvaluationResult) are not remembered, since they depend on the threshold of the rule.
+ * Approximate results of a prefix of the event stream are not remembered either, but a remembered result also answers a prefix.
+ * Penalties of rules that exceeded a budget are not remembered, since they do not describe the rule.
+ * @author Software Architecture Research Group
+ *
+ */
+public class CachingRuleEvaluator implements RuleEvaluator {
+    private final RuleEvaluator evaluator;
+    private final EventHandler eh;
+    private final FitnessCache<CanonicalRule> cache;
+
+    public CachingRuleEvaluator(RuleEvaluator evaluator, EventHandler eh, int maximumSize, CacheEvictionEnum eviction) {
+        this.evaluator = evaluator;
+        this.eh = eh;
+        this.cache = new FitnessCache<>(maximumSize, eviction);
+    }
+
+    @Override
+    public Map<Rule, EvaluationResult> evaluateRule(List<Rule> rules) {
+        return evaluateRule(rules, Collections.emptyMap());
+    }
+
+    @Override
+    public Map<Rule, EvaluationResult> evaluateRule(List<Rule> rules, Map<Rule, Double> mustBeat) {
+        return evaluate(rules, mustBeat, 1.0);
+    }
+
+    /**
+     * The result of the whole event stream is more accurate than the result of a prefix, so remembered results are used for prefixes as well.
+     */
+    @Override
+    public Map<Rule, EvaluationResult> evaluatePrefix(List<Rule> rules, double fraction) {
+        return evaluate(rules, Collections.emptyMap(), fraction);
+    }
+
+    private Map<Rule, EvaluationResult> evaluate(List<Rule> rules, Map<Rule, Double> mustBeat, double fraction) {
+        Map<Rule, EvaluationResult> results = new HashMap<>();
+        Map<CanonicalRule, Rule> misses = new LinkedHashMap<>();
+        Map<Rule, CanonicalRule> pending = new HashMap<>();
+        Map<CanonicalRule, Double> lowestThresholds = new HashMap<>(); // NaN if one of the rules has no threshold
+        for (Rule rule : rules) {
+            // the evaluators repair the rule anyway. Doing it beforehand ensures that the key describes the evaluated rule.
+            AttributeConditionTreeBuilder.repairAggregationWindowsInAct(rule, eh);
+            CanonicalRule key = rule.getCanonicalForm();
+            EvaluationResult result = cache.get(key);
+            if (result != null) {
+                results.put(rule, result);
+            } else {
+                misses.putIfAbsent(key, rule);
+                pending.put(rule, key);
+                // rules with the same normal form share the result of the rule that is passed on, and thus the lowest threshold
+                lowestThresholds.merge(key, mustBeat.getOrDefault(rule, Double.NaN), (a, b) -> Double.isNaN(a) || Double.isNaN(b) ? Double.NaN : Math.min(a, b));
+            }
+        }
+        if (!misses.isEmpty()) {
+            Map<Rule, Double> thresholds = new HashMap<>();
+            lowestThresholds.forEach((key, threshold) -> {
+                if (!Double.isNaN(threshold)) {
+                    thresholds.put(misses.get(key), threshold);
+                }
+            });
+            Map<Rule, EvaluationResult> evaluated = fraction < 1.0 ? evaluator.evaluatePrefix(new ArrayList<>(misses.values()), fraction)
+                    : evaluator.evaluateRule(new ArrayList<>(misses.values()), thresholds);
+            misses.forEach((key, rule) -> {
+                if (!evaluated.get(rule).isDominated() && !evaluated.get(rule).isApproximate() && !evaluated.get(rule).isPenalty()) {
+                    cache.put(key, evaluated.get(rule));
+                }
+            });
+            pending.forEach((rule, key) -> results.put(rule, evaluated.get(misses.get(key))));
+        }
+        return results;
+    }
+
+    @Override
+    public EvaluationResult optimizeConstant(Rule rule, AttributeOperator comparison) {
+        EvaluationResult result = evaluator.optimizeConstant(rule, comparison);
+        if (result != null && !result.isPenalty()) {
+            cache.put(rule.getCanonicalForm(), result);
+        }
+        return result;
+    }
+
+    public FitnessCache<CanonicalRule> getCache() {
+        return cache;
+    }
+
+    @Override
+    public void destroy() {
+        evaluator.destroy();
+    }
+}
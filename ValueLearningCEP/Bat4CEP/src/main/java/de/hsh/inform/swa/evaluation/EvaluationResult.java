@@ -7,17 +7,50 @@ package de.hsh.inform.swa.evaluation;
  */
 public class EvaluationResult {
 	private final long truePositives, falsePositives, trueNegatives, falseNegatives, originalPositives;
+	private final boolean dominated;
+	private final boolean approximate;
+	private final boolean penalty;
 
     public EvaluationResult(int truePositives, int falsePositives, long trueNegatives, long falseNegatives, long complexEventCount) {
+        this(truePositives, falsePositives, trueNegatives, falseNegatives, complexEventCount, false);
+    }
+
+    /**
+     * @param dominated true if the evaluation was stopped early, because the rule could no longer reach its threshold (see RuleEvaluator).
+     * The counts are then the best case of the rule, i.e. its F1 score is an upper bound and below the threshold.
+     */
+    public EvaluationResult(int truePositives, int falsePositives, long trueNegatives, long falseNegatives, long complexEventCount, boolean dominated) {
+        this(truePositives, falsePositives, trueNegatives, falseNegatives, complexEventCount, dominated, false, false);
+    }
+
+    private EvaluationResult(int truePositives, int falsePositives, long trueNegatives, long falseNegatives, long complexEventCount, boolean dominated,
+            boolean approximate, boolean penalty) {
         this.truePositives = truePositives;
         this.falsePositives = falsePositives;
         this.trueNegatives = trueNegatives;
         this.falseNegatives = falseNegatives;
         this.originalPositives = complexEventCount; //for a perfect result:  originalPositives == truePositives AND falseNegatives == 60
+        this.dominated = dominated;
+        this.approximate = approximate;
+        this.penalty = penalty;
     }
 
     public EvaluationResult copy() {
-        return new EvaluationResult((int) truePositives, (int) falsePositives, trueNegatives, falseNegatives, originalPositives);
+        return new EvaluationResult((int) truePositives, (int) falsePositives, trueNegatives, falseNegatives, originalPositives, dominated, approximate, penalty);
+    }
+
+    /**
+     * @return copy of this result, marked as measured on a part of the event stream only (see RuleEvaluator.evaluatePrefix)
+     */
+    public EvaluationResult toApproximate() {
+        return new EvaluationResult((int) truePositives, (int) falsePositives, trueNegatives, falseNegatives, originalPositives, dominated, true, penalty);
+    }
+
+    /**
+     * @return copy of this result, marked as a penalty instead of the measured performance of the rule (see StatementBudget)
+     */
+    public EvaluationResult toPenalty() {
+        return new EvaluationResult((int) truePositives, (int) falsePositives, trueNegatives, falseNegatives, originalPositives, dominated, approximate, true);
     }
     
     public long getTruePositives() {
@@ -39,4 +72,16 @@ public class EvaluationResult {
 	public long getOriginalPositives() {
 		return originalPositives;
 	}
+
+	public boolean isDominated() {
+		return dominated;
+	}
+
+	public boolean isApproximate() {
+		return approximate;
+	}
+
+	public boolean isPenalty() {
+		return penalty;
+	}
 }
@@ -1,5 +1,7 @@
 package de.hsh.inform.swa.evaluation;
 
+import java.util.BitSet;
+
 import de.hsh.inform.swa.evaluation.esper.EsperSubscriber;
 import de.hsh.inform.swa.util.EventHandler;
 
@@ -19,27 +21,74 @@ public class EvaluationSubscriber extends EsperSubscriber{
         this.eh = eh;
     }
     public int getTruePositives() {
-        int result = 0;
-        for (Integer s : super.getFiredPosition()) {
-            if (s < eh.getEventDataSize()) {
-                if (eh.getEventData().get(s).getType().equals(eh.getComplexEvent().getType())) {
-                    result++;
-                }
-            }
-        }
-        return result;
+        BitSet hits = (BitSet) super.getFiredPosition().clone();
+        hits.and(eh.getComplexEventPositions());
+        return hits.cardinality();
     }
 
     public int getFalsePositives() {
-        int result = 0;
-        for (Integer s : super.getFiredPosition()) {
-            if (s < eh.getEventDataSize()) {
-                if (!eh.getEventData().get(s).getType().equals(eh.getComplexEvent().getType())) {
-                    result++;
-                }
-            }
-        }
-        return result;
+        BitSet hits = super.getFiredPosition().get(0, eh.getEventDataSize()); // hits after the last event are ignored
+        hits.andNot(eh.getComplexEventPositions());
+        return hits.cardinality();
+    }
+
+    /**
+     * @param lines number of replayed events
+     * @return performance of the rule on the replayed events, see getResult(BitSet, int, EventHandler)
+     */
+    public synchronized EvaluationResult getResult(int lines) {
+        return getResult(super.getFiredPosition(), lines, eh);
+    }
+
+    /**
+     * Performance of a rule on the first lines of the event stream. Like in getFalsePositives(), hits after the last replayed event are ignored.
+     * False positives and true negatives of a reduced event stream are estimates for the original event stream (see StreamReduction).
+     * @param hits hits of the rule
+     * @param lines number of replayed events
+     * @return result of the rule, approximate if not all events were replayed
+     */
+    public static EvaluationResult getResult(BitSet hits, int lines, EventHandler eh) {
+        BitSet complexEvents = eh.getComplexEventPositions().get(0, lines);
+        BitSet replayedHits = hits.get(0, lines);
+        BitSet truePositiveHits = (BitSet) replayedHits.clone();
+        truePositiveHits.and(complexEvents);
+        replayedHits.andNot(complexEvents);
+        int truePositives = truePositiveHits.cardinality();
+        int falsePositives = (int) eh.getRepresentedCount(replayedHits);
+        int complexEventCount = complexEvents.cardinality();
+
+        long trueNegatives = (eh.getRepresentedLines(lines) - complexEventCount) - falsePositives;
+        long falseNegatives = complexEventCount - truePositives;
+        EvaluationResult result = new EvaluationResult(truePositives, falsePositives, trueNegatives, falseNegatives, complexEventCount);
+        return lines < eh.getEventDataSize() ? result.toApproximate() : result;
+    }
+
+    /**
+     * @param line number of replayed events. All later hits are at this position or after it.
+     * @return dominated result with the best performance the rule can still reach, see getBestCase(BitSet, int, EventHandler)
+     */
+    public synchronized EvaluationResult getBestCase(int line) {
+        return getBestCase(super.getFiredPosition(), line, eh);
+    }
+
+    /**
+     * The best case of a rule after a part of the event stream: the hits so far are kept and every complex event ahead is hit without further false positives.
+     * @param hits hits so far
+     * @param line number of replayed events. All later hits are at this position or after it.
+     * @return result of the best case, marked as dominated
+     */
+    public static EvaluationResult getBestCase(BitSet hits, int line, EventHandler eh) {
+        BitSet complexEvents = eh.getComplexEventPositions();
+        BitSet settled = hits.get(0, line);
+        BitSet settledTruePositives = (BitSet) settled.clone();
+        settledTruePositives.and(complexEvents);
+        settled.andNot(complexEvents);
+        int truePositives = settledTruePositives.cardinality() + complexEvents.cardinality() - complexEvents.get(0, line).cardinality();
+        int falsePositives = (int) eh.getRepresentedCount(settled);
+
+        long trueNegatives = (eh.getRepresentedLines(eh.getEventDataSize()) - eh.getComplexEventCount()) - falsePositives;
+        long falseNegatives = eh.getComplexEventCount() - truePositives;
+        return new EvaluationResult(truePositives, falsePositives, trueNegatives, falseNegatives, eh.getComplexEventCount(), true);
     }
     @Override
     public int getOffset() {
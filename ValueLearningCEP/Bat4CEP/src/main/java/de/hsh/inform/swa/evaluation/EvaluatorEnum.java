@@ -0,0 +1,14 @@
+package de.hsh.inform.swa.evaluation;
+/**
+ * Enum class to choose the backend that evaluates the rules.
+ * ESPER: rules are compiled to EPL statements and evaluated by the Esper engine (EsperEvaluator.java).
+ * MATCHER: rules are evaluated by the in-process pattern matcher (MatcherEvaluator.java).
+ * ESPER_MATCH_STORE: Esper records the matches of each ECT and window once, the ACTs are evaluated against the recorded matches (MatchTupleStore.java).
+ * 
+ * Is used by Bat4CEP.java.
+ * @author Software Architecture Research Group 
+ *
+ */
+public enum EvaluatorEnum {
+	ESPER, MATCHER, ESPER_MATCH_STORE
+}
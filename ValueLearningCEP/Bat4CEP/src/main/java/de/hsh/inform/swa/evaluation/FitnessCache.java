@@ -0,0 +1,139 @@
+package de.hsh.inform.swa.evaluation;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+/**
+ * Bounded and thread-safe cache of evaluation results.
+ * Both eviction policies work in constant time:
+ * LRU uses a LinkedHashMap in access order, LFU keeps one insertion-ordered bucket of keys per request frequency.
+ * @author Software Architecture Research Group
+ *
+ */
+public class FitnessCache<K> {
+    private final int maximumSize;
+    private final CacheEvictionEnum eviction;
+
+    private final LinkedHashMap<K, EvaluationResult> lru;
+    private final Map<K, EvaluationResult> lfu = new HashMap<>();
+    private final Map<K, Integer> frequencies = new HashMap<>();
+    private final Map<Integer, LinkedHashSet<K>> frequencyBuckets = new HashMap<>();
+    private int minFrequency;
+
+    private long hits, misses, evictions;
+
+    public FitnessCache(int maximumSize, CacheEvictionEnum eviction) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Size of the fitness cache must be positive: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        this.eviction = eviction;
+        this.lru = new LinkedHashMap<K, EvaluationResult>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, EvaluationResult> eldest) {
+                if (size() > FitnessCache.this.maximumSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the cached result or null if the key is unknown
+     */
+    public synchronized EvaluationResult get(K key) {
+        EvaluationResult result = eviction == CacheEvictionEnum.LRU ? lru.get(key) : lfu.get(key);
+        if (result == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        if (eviction == CacheEvictionEnum.LFU) {
+            incrementFrequency(key);
+        }
+        return result;
+    }
+
+    /**
+     * @param result result of the evaluation. Null results are not cached.
+     */
+    public synchronized void put(K key, EvaluationResult result) {
+        if (result == null) {
+            return;
+        }
+        if (eviction == CacheEvictionEnum.LRU) {
+            lru.put(key, result);
+            return;
+        }
+        if (lfu.containsKey(key)) {
+            lfu.put(key, result);
+            incrementFrequency(key);
+            return;
+        }
+        if (lfu.size() >= maximumSize) {
+            LinkedHashSet<K> bucket = frequencyBuckets.get(minFrequency);
+            K evicted = bucket.iterator().next();
+            removeFromBucket(evicted, minFrequency);
+            lfu.remove(evicted);
+            frequencies.remove(evicted);
+            evictions++;
+        }
+        lfu.put(key, result);
+        frequencies.put(key, 1);
+        frequencyBuckets.computeIfAbsent(1, f -> new LinkedHashSet<>()).add(key);
+        minFrequency = 1;
+    }
+
+    private void incrementFrequency(K key) {
+        int frequency = frequencies.get(key);
+        removeFromBucket(key, frequency);
+        if (minFrequency == frequency && !frequencyBuckets.containsKey(frequency)) {
+            minFrequency++;
+        }
+        frequencies.put(key, frequency + 1);
+        frequencyBuckets.computeIfAbsent(frequency + 1, f -> new LinkedHashSet<>()).add(key);
+    }
+
+    private void removeFromBucket(K key, int frequency) {
+        LinkedHashSet<K> bucket = frequencyBuckets.get(frequency);
+        bucket.remove(key);
+        if (bucket.isEmpty()) {
+            frequencyBuckets.remove(frequency);
+        }
+    }
+
+    public synchronized int size() {
+        return eviction == CacheEvictionEnum.LRU ? lru.size() : lfu.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return share of requests that were answered by the cache. NaN if there was no request yet.
+     */
+    public synchronized double getHitRate() {
+        return (double) hits / (hits + misses);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ENGLISH, "fitness cache (%s, %d/%d entries): %d hits, %d misses, %d evictions, hit rate %.5f", eviction, size(),
+                maximumSize, hits, misses, evictions, getHitRate());
+    }
+}
@@ -1,10 +1,17 @@
 package de.hsh.inform.swa.evaluation;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import de.hsh.inform.swa.cep.AttributeOperator;
 import de.hsh.inform.swa.cep.Rule;
+import de.hsh.inform.swa.cep.windows.Window;
 /**
  * Commonality of all evaluation classes.
  * @author Software Architecture Research Group
@@ -27,5 +34,86 @@ public interface RuleEvaluator {
      */
     public Map<Rule, EvaluationResult> evaluateRule(List<Rule> rules);
 
+    /**
+     * passes rules to the engine like evaluateRule(List), but the evaluation of a rule may be stopped as soon as its F1 score can no longer reach its threshold.
+     * @param rules
+     * @param mustBeat F1 score each rule has to reach, rules without threshold are evaluated completely
+     * @return Rules with information about their performance. The result of a rule that was stopped early is dominated (see EvaluationResult), its F1 score is below the threshold.
+     */
+    default public Map<Rule, EvaluationResult> evaluateRule(List<Rule> rules, Map<Rule, Double> mustBeat) {
+        return evaluateRule(rules);
+    }
+
+    /**
+     * passes rules to the engine like evaluateRule(List), but only the first part of the event stream is replayed.
+     * Used to discard weak rules cheaply before the whole event stream is replayed for the rest (see FitnessHelper).
+     * @param rules
+     * @param fraction share of the events that is replayed, from the beginning of the event stream
+     * @return Rules with information about their performance on the replayed events. Results of a part of the event stream are approximate (see EvaluationResult).
+     * Evaluators that can not stop the replay evaluate the whole event stream.
+     */
+    default public Map<Rule, EvaluationResult> evaluatePrefix(List<Rule> rules, double fraction) {
+        return evaluateRule(rules);
+    }
+
+    /**
+     * @return number of events of a prefix of the event stream, at least one
+     */
+    public static int getPrefixLength(double fraction, int events) {
+        return (int) Math.max(1, Math.min(events, Math.ceil(fraction * events)));
+    }
+
+    /**
+     * passes a rule with each of the given windows to the engine as one batch of rules (see evaluateRule).
+     * Esper evaluates the windows as statements of the same replays, the matcher replays the event stream once per window.
+     * @param rule ECT and ACT to evaluate, its own window is ignored
+     * @param windows
+     * @return copy of the rule with each window and its performance, in the order of the windows. 
+     * The ACT of a copy may differ from the ACT of the rule, because aggregation windows follow the window of the rule.
+     */
+    default public Map<Rule, EvaluationResult> evaluateWindows(Rule rule, List<Window> windows) {
+        List<Rule> variants = new ArrayList<>();
+        for (Window window : windows) {
+            Rule variant = rule.copy();
+            variant.setWindow(window.copy());
+            variants.add(variant);
+        }
+        Map<Rule, EvaluationResult> results = evaluateRule(variants);
+        Map<Rule, EvaluationResult> windowResults = new LinkedHashMap<>();
+        for (Rule variant : variants) {
+            windowResults.put(variant, results.get(variant));
+        }
+        return windowResults;
+    }
+
+    /**
+     * sets the constant of a comparison in the ACT of the rule to the value with the best F1 score, found with a single pass over the event stream.
+     * @param rule
+     * @param comparison comparison of the ACT of the rule with a constant operand
+     * @return performance of the rule with the new constant, null if the evaluator does not support it. The rule is left unchanged in this case.
+     */
+    default public EvaluationResult optimizeConstant(Rule rule, AttributeOperator comparison) {
+        return null;
+    }
+
+    /**
+     * @return threshold of each rule with a threshold. Equal rules are evaluated once, so they share the lowest of their thresholds, 
+     * and they have none if one of them has none.
+     */
+    public static Map<Rule, Double> getThresholds(List<Rule> rules, Map<Rule, Double> mustBeat) {
+        Map<Rule, Double> thresholds = new HashMap<>();
+        Set<Rule> unbounded = new HashSet<>();
+        for (Rule rule : rules) {
+            Double threshold = mustBeat.get(rule);
+            if (threshold == null) {
+                unbounded.add(rule);
+            } else {
+                thresholds.merge(rule, threshold, Math::min);
+            }
+        }
+        thresholds.keySet().removeAll(unbounded);
+        return thresholds;
+    }
+
     default public void destroy() {}
 }
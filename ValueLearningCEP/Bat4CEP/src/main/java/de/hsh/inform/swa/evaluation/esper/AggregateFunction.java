@@ -0,0 +1,37 @@
+package de.hsh.inform.swa.evaluation.esper;
+
+import com.espertech.esper.client.hook.EPLMethodInvocationContext;
+
+import de.hsh.inform.swa.util.EventHandler;
+/**
+ * Plug-in single-row function that replaces the aggregation subqueries of the ACT,
+ * e.g. cep_aggregate("AVG", "A", "TEMP", 10, A0._lineNumber, B0._lineNumber) instead of (SELECT AVG(TEMP) FROM A#time(10 sec)).
+ * The aggregate is looked up in the aggregate index of the event handler, which is the user object of the statement (see EsperUtils),
+ * so the engine neither keeps a time window per aggregation nor aggregates it for every match.
+ * @author Software Architecture Research Group
+ *
+ */
+public class AggregateFunction {
+    public static final String NAME = "cep_aggregate";
+
+    /**
+     * @param function AVG, SUM, MIN or MAX
+     * @param windowSeconds length of the time window
+     * @param lines line numbers of the tagged events, null if an event is not part of the match. The window ends at the last of them.
+     * @return aggregate, null if it is unknown (e.g. the window contains no event of the type)
+     */
+    public static Double aggregate(String function, String type, String attribute, Number windowSeconds, EPLMethodInvocationContext context, Integer... lines) {
+        int line = -1;
+        for (Integer lineNumber : lines) {
+            if (lineNumber != null && lineNumber > line) {
+                line = lineNumber;
+            }
+        }
+        if (windowSeconds == null || line < 0) {
+            return null;
+        }
+        EventHandler eh = (EventHandler) context.getStatementUserObject();
+        double value = eh.getAggregateIndex().aggregate(function, type, attribute, windowSeconds.longValue() * 1000, line);
+        return Double.isNaN(value) ? null : value;
+    }
+}
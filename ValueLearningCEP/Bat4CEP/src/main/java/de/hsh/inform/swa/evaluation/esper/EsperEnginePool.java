@@ -0,0 +1,133 @@
+package de.hsh.inform.swa.evaluation.esper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.espertech.esper.client.Configuration;
+import com.espertech.esper.client.EPRuntime;
+import com.espertech.esper.client.EPServiceProvider;
+import com.espertech.esper.client.EPServiceProviderManager;
+import com.espertech.esper.client.time.CurrentTimeEvent;
+import com.espertech.esper.client.time.TimerControlEvent;
+
+import de.hsh.inform.swa.util.EventHandler;
+/**
+ * Pool of Esper engines that are reused across evaluators, runs and test cases.
+ *
+ * Lifecycle of an engine:
+ * (1) it is created once for an event schema, i.e. the event types and their attributes. Missing engines are created in parallel.
+ * (2) an evaluator acquires it. The engine is bound to the event handler of the evaluator, which is used by the pattern guards.
+ * (3) before each batch of rules, the engine is reset: all statements are destroyed and the clock is set to the current time.
+ * (4) the evaluator releases it and the engine waits for the next evaluator with the same event schema.
+ * (5) all engines are destroyed together with the pool.
+ *
+ * Only engines acquired for a budget on sub-expressions count the active sub-expressions of their statements (see StatementBudget),
+ * since the count costs time on every pattern match. These engines are kept apart from the others.
+ * @author Software Architecture Research Group
+ *
+ */
+public class EsperEnginePool {
+    private static final AtomicInteger ENGINE_COUNTER = new AtomicInteger(); // engine URIs have to be unique in the JVM
+    private final Map<Map<String, Map<String, Object>>, List<EPServiceProvider>> idleEngines = new HashMap<>();
+    private final Map<EPServiceProvider, Map<String, Map<String, Object>>> schemaOfEngine = new HashMap<>();
+    private final Set<EPServiceProvider> countingEngines = new HashSet<>();
+
+    /**
+     * @param eh event handler the engines are bound to
+     * @param numberOfEngines number of engines
+     * @return reset engines that know all event types of the event handler
+     */
+    public EPServiceProvider[] acquire(EventHandler eh, int numberOfEngines) {
+        return acquire(eh, numberOfEngines, false);
+    }
+
+    /**
+     * @param eh event handler the engines are bound to
+     * @param numberOfEngines number of engines
+     * @param countSubexpressions true if the engines count the active sub-expressions of each statement
+     * @return reset engines that know all event types of the event handler
+     */
+    public synchronized EPServiceProvider[] acquire(EventHandler eh, int numberOfEngines, boolean countSubexpressions) {
+        Map<String, Map<String, Object>> schema = EventHandlerUtils.getEventSchema(eh);
+        List<EPServiceProvider> idle = idleEngines.computeIfAbsent(schema, s -> new ArrayList<>());
+        List<EPServiceProvider> engines = idle.stream().filter(engine -> countingEngines.contains(engine) == countSubexpressions).limit(numberOfEngines)
+                .collect(Collectors.toList());
+        idle.removeAll(engines);
+
+        int missingEngines = numberOfEngines - engines.size();
+        if (missingEngines > 0) {
+            System.out.println("Initialization of " + missingEngines + " Esper Engine(s)");
+            int firstId = ENGINE_COUNTER.getAndAdd(missingEngines);
+            IntStream.range(firstId, firstId + missingEngines).parallel().mapToObj(id -> createEngine(eh, id, countSubexpressions)).forEachOrdered(engines::add);
+            if (countSubexpressions) {
+                countingEngines.addAll(engines);
+            }
+        }
+        for (EPServiceProvider engine : engines) {
+            schemaOfEngine.put(engine, schema);
+            engine.getEPAdministrator().getConfiguration().getTransientConfiguration().put(EventHandlerUtils.EVENT_HANDLER, eh);
+            reset(engine);
+        }
+        return engines.toArray(new EPServiceProvider[engines.size()]);
+    }
+
+    /**
+     * @return true if the engine counts the active sub-expressions of each statement
+     */
+    public synchronized boolean countsSubexpressions(EPServiceProvider engine) {
+        return countingEngines.contains(engine);
+    }
+
+    private static EPServiceProvider createEngine(EventHandler eh, int id, boolean countSubexpressions) {
+        Configuration configuration = EventHandlerUtils.toEsperConfiguration(eh); // own configuration, because the event handler is bound per engine
+        // no outbound threading: the subscribers are notified in the thread that sends the events, so the hits are complete as soon as a replay returns
+        configuration.getEngineDefaults().getThreading().setThreadPoolOutbound(false);
+        configuration.getEngineDefaults().getViewResources().setShareViews(false);
+        configuration.getEngineDefaults().getThreading().setListenerDispatchPreserveOrder(false);
+        if (countSubexpressions) {
+            // Esper only counts the active sub-expressions of each statement with a configured maximum, which can not be added after the start. It is never reached.
+            configuration.getEngineDefaults().getPatterns().setMaxSubexpressions(Long.MAX_VALUE);
+        }
+        return EPServiceProviderManager.getProvider("Pool_Engine" + id, configuration);
+    }
+
+    /**
+     * Gives the engines back to the pool. Their statements are destroyed.
+     */
+    public synchronized void release(EPServiceProvider[] engines) {
+        for (EPServiceProvider engine : engines) {
+            Map<String, Map<String, Object>> schema = schemaOfEngine.get(engine);
+            if (schema == null || engine.isDestroyed()) {
+                continue; // not part of this pool
+            }
+            engine.getEPAdministrator().destroyAllStatements();
+            engine.getEPAdministrator().getConfiguration().getTransientConfiguration().remove(EventHandlerUtils.EVENT_HANDLER);
+            idleEngines.get(schema).add(engine);
+        }
+    }
+
+    /**
+     * Replaces a full initialization of the engine. The event types stay registered.
+     * Like after an initialization, new statements start at the current time.
+     */
+    public static void reset(EPServiceProvider engine) {
+        engine.getEPAdministrator().destroyAllStatements();
+        EPRuntime runtime = engine.getEPRuntime();
+        runtime.sendEvent(new TimerControlEvent(TimerControlEvent.ClockType.CLOCK_EXTERNAL));
+        runtime.sendEvent(new CurrentTimeEvent(System.currentTimeMillis()));
+    }
+
+    public synchronized void destroy() {
+        schemaOfEngine.keySet().forEach(EPServiceProvider::destroy);
+        schemaOfEngine.clear();
+        countingEngines.clear();
+        idleEngines.clear();
+    }
+}
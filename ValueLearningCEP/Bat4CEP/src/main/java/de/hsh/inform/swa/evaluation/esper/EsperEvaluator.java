@@ -2,30 +2,44 @@ package de.hsh.inform.swa.evaluation.esper;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
-import com.espertech.esper.client.EPRuntime;
 import com.espertech.esper.client.EPServiceProvider;
 import com.espertech.esper.client.EPStatement;
-import com.espertech.esper.client.time.CurrentTimeEvent;
-import com.espertech.esper.client.time.TimerControlEvent;
-import com.google.common.collect.Lists;
 
-import de.hsh.inform.swa.cep.Event;
+import de.hsh.inform.swa.cep.AttributeOperator;
 import de.hsh.inform.swa.cep.Rule;
+import de.hsh.inform.swa.evaluation.EvaluationMeasures;
 import de.hsh.inform.swa.evaluation.EvaluationResult;
 import de.hsh.inform.swa.evaluation.EvaluationSubscriber;
 import de.hsh.inform.swa.evaluation.RuleEvaluator;
+import de.hsh.inform.swa.evaluation.esper.EsperReplayDriver.DominanceCheck;
+import de.hsh.inform.swa.evaluation.matcher.CompiledCondition;
+import de.hsh.inform.swa.evaluation.matcher.EventColumns;
+import de.hsh.inform.swa.evaluation.matcher.PatternAutomaton;
+import de.hsh.inform.swa.evaluation.matcher.ThresholdSweep;
 import de.hsh.inform.swa.util.EventHandler;
 import de.hsh.inform.swa.util.builder.AttributeConditionTreeBuilder;
 /**
  * This class determines the performance of new rules and uses the CEP engine Esper. 
  * Depending on how many threads are defined,
- * this class splits the rules into subsets and evaluates them in parallel.
+ * this class splits the rules into subsets of similar costs and evaluates them in parallel.
+ * Rules with the same ECT and window are matched by a single pattern statement, their ACTs are evaluated per match in-process.
+ * Each engine only receives the events of the types its statements refer to, rules with similar event types are evaluated by the same engine.
+ * Optionally, the matches of each pattern are recorded, so that later rules with the same pattern are evaluated without the engine.
+ * Statements that exceed the budget of the replay driver are cancelled, their rules get a penalty result that is marked as such (see EvaluationResult).
+ * Statements whose rules can no longer reach their thresholds are stopped early, their rules get a dominated result.
+ * Prefixes of the event stream are evaluated by replaying the first events only. Their matches are not recorded, but recorded matches answer prefixes as well.
  * 
  * @author Software Architecture Research Group
  *
@@ -34,25 +48,89 @@ public class EsperEvaluator implements RuleEvaluator {
     private final List<EPServiceProvider> esperServiceProvider = new ArrayList<>();
     private final AtomicInteger curStart = new AtomicInteger();
     private final EventHandler eh;
+    private final EsperEnginePool enginePool;
+    private final EsperReplayDriver replayDriver;
+    private final MatchTupleCache matchTuples; // null if the ACTs are evaluated during the replay
+    private EventColumns eventColumns;
+    private EvaluationResult penalty; // null: a rule without hits
         
     public EsperEvaluator(EventHandler eh, EPServiceProvider[] esperServiceProvider) {
+        this(eh, esperServiceProvider, null, null);
+    }
+
+    /**
+     * @param enginePool the engines are acquired from this pool and given back when the evaluator is destroyed
+     */
+    public EsperEvaluator(EventHandler eh, EsperEnginePool enginePool, int numberOfEngines) {
+        this(eh, enginePool, numberOfEngines, null);
+    }
+
+    /**
+     * @param matchTuples if not null, the matches of each pattern are recorded once and the ACTs are evaluated against the recorded matches
+     */
+    public EsperEvaluator(EventHandler eh, EsperEnginePool enginePool, int numberOfEngines, MatchTupleCache matchTuples) {
+        this(eh, enginePool.acquire(eh, numberOfEngines), enginePool, matchTuples);
+    }
+
+    private EsperEvaluator(EventHandler eh, EPServiceProvider[] esperServiceProvider, EsperEnginePool enginePool, MatchTupleCache matchTuples) {
         this.eh = eh;
+        this.enginePool = enginePool;
+        this.matchTuples = matchTuples;
+        this.replayDriver = new EsperReplayDriver(eh);
         this.esperServiceProvider.addAll(Arrays.asList(esperServiceProvider));
     }
 
     @Override
-    public Map<Rule, EvaluationResult> evaluateRule(List<Rule> inRules) {
-    	initPatternGuards();
-        int size = (inRules.size() / esperServiceProvider.size());
+    public Map<Rule, EvaluationResult> evaluateRule(List<Rule> rules) {
+        return evaluateRule(rules, Collections.emptyMap());
+    }
 
-        List<List<Rule>> subSets = Lists.partition(inRules, size); //external library: google.common
+    @Override
+    public Map<Rule, EvaluationResult> evaluateRule(List<Rule> rules, Map<Rule, Double> mustBeat) {
+        return evaluate(rules, mustBeat, eh.getEventDataSize());
+    }
+
+    @Override
+    public Map<Rule, EvaluationResult> evaluatePrefix(List<Rule> rules, double fraction) {
+        return evaluate(rules, Collections.emptyMap(), RuleEvaluator.getPrefixLength(fraction, eh.getEventDataSize()));
+    }
+
+    /*
+     * Evaluates the rules on the first lines of the event stream.
+     */
+    private Map<Rule, EvaluationResult> evaluate(List<Rule> rules, Map<Rule, Double> mustBeat, int lines) {
+        // special treatment because of Esper-specific aggregation functions. 
+        // The repair changes the hash code of a rule, so it has to be done before the rules are used as keys.
+        rules.forEach(rule -> AttributeConditionTreeBuilder.repairAggregationWindowsInAct(rule, eh));
+        Map<Rule, Double> thresholds = RuleEvaluator.getThresholds(rules, mustBeat);
+        // rules with the same ECT and window share one pattern statement, the pattern contains the aliases and the window
+        Map<String, List<Rule>> groups = rules.stream().distinct()
+                .collect(Collectors.groupingBy(Rule::getPatternAsString, LinkedHashMap::new, Collectors.toList()));
+        Map<Rule, EvaluationResult> recordedResults = new HashMap<>();
+        if (matchTuples != null) {
+            // patterns whose matches are already recorded skip the engine
+            for (Iterator<Map.Entry<String, List<Rule>>> it = groups.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, List<Rule>> group = it.next();
+                MatchTupleStore store = matchTuples.get(group.getKey());
+                if (store != null) {
+                    recordedResults.putAll(evaluate(store, group.getValue(), lines));
+                    it.remove();
+                }
+            }
+            if (groups.isEmpty()) {
+                return recordedResults;
+            }
+        }
+        // an incomplete replay must not be recorded
+        boolean record = matchTuples != null && lines == eh.getEventDataSize();
+        List<List<Rule>> subSets = RuleBatchScheduler.partitionGroups(new ArrayList<>(groups.values()), esperServiceProvider.size());
 
         AtomicInteger curProviderID = new AtomicInteger(curStart.getAndIncrement());
         if (curStart.get() >= esperServiceProvider.size()) {
             curStart.set(0);
         }
 
-        return subSets.stream().parallel().flatMap(curRules -> {
+        Map<Rule, EvaluationResult> allResults = subSets.stream().parallel().flatMap(curRepresentatives -> {
             int curID = curProviderID.getAndIncrement();
             if (curID >= esperServiceProvider.size()) {
                 curID = 0;
@@ -68,60 +146,244 @@ public class EsperEvaluator implements RuleEvaluator {
              * 3. Collect the results.
              */
             synchronized (provider) {
-            	provider.initialize();
-                // Create a bunch of statements, one for each rule and register a subscriber
-                Map<Rule, EPStatement> statements = curRules.stream().parallel().collect(Collectors.toMap(rule -> rule, rule -> {
-                	AttributeConditionTreeBuilder.repairAggregationWindowsInAct(rule, eh); // special treatment because of Esper-specific aggregation functions
-                	EPStatement statement = EsperUtils.createStatement(provider.getEPAdministrator(), rule);
-                    EvaluationSubscriber subscriber = new EvaluationSubscriber(eh);
-                    statement.setSubscriber(subscriber);
-                    statement.start();
-                    return statement;
-                }));  
-                
+            	EsperEnginePool.reset(provider); // much cheaper than provider.initialize(), which registers all event types again
+                // Create a bunch of statements, one for each rule or group of rules, and register the subscribers
+                Map<Rule, EvaluationSubscriber> subscribers = new ConcurrentHashMap<>();
+                Map<String, MatchTupleStore> stores = new ConcurrentHashMap<>();
+                Map<EPStatement, List<Rule>> rulesOfStatement = new ConcurrentHashMap<>();
+                List<EPStatement> statements = curRepresentatives.stream().parallel().flatMap(representative -> {
+                    String pattern = representative.getPatternAsString();
+                    return createStatements(provider, pattern, groups.get(pattern), record, subscribers, stores, rulesOfStatement).stream();
+                }).collect(Collectors.toList());
+
                 // Feed the engine with data
-                sendEvents(provider.getEPRuntime(), eh.getEventData());
+                List<EPStatement> cancelled = new ArrayList<>();
+                Map<Rule, EvaluationResult> dominatedResults = new HashMap<>();
+                DominanceCheck dominance = thresholds.isEmpty() ? null
+                        : (statement, line) -> isDominated(statement, rulesOfStatement.get(statement), subscribers, thresholds, line, dominatedResults);
+                // the engine only receives the events of the types its statements refer to
+                Set<String> types = curRepresentatives.stream().flatMap(representative -> RuleBatchScheduler.getEventTypes(representative).stream())
+                        .collect(Collectors.toSet());
+                replayDriver.replay(provider, statements, types, lines, cancelled, dominance);
                 // Collect the results.
-                Map<Rule, EvaluationResult> results = statements.entrySet().stream().parallel().collect(Collectors.toMap(res -> res.getKey(), res -> {
-
-                    EPStatement statement = res.getValue();
-                    EvaluationSubscriber subscriber = (EvaluationSubscriber) statement.getSubscriber();
-
-                    int truePositives = subscriber.getTruePositives();
-                    int falsePositives = subscriber.getFalsePositives();
-
-                    long trueNegatives = (eh.getEventDataSize() - eh.getComplexEventCount()) - falsePositives;
-                    long falseNegatives = eh.getComplexEventCount() - truePositives;
-
+                Map<Rule, EvaluationResult> results = subscribers.entrySet().stream().parallel()
+                        .collect(Collectors.toMap(res -> res.getKey(), res -> res.getValue().getResult(lines)));
+                // the matches of a cancelled statement are incomplete and must not be recorded
+                cancelled.forEach(statement -> stores.values().remove(statement.getSubscriber()));
+                stores.forEach((pattern, store) -> {
+                    matchTuples.put(pattern, store);
+                    results.putAll(evaluate(store, groups.get(pattern), lines));
+                });
+                results.putAll(dominatedResults);
+                for (EPStatement statement : cancelled) {
+                    rulesOfStatement.get(statement).forEach(rule -> results.put(rule, getPenalty()));
+                }
+                for (EPStatement statement : statements) {
                     if(!statement.isDestroyed()) {
                     	statement.destroy();
                     }
-                    
-                    return new EvaluationResult(truePositives, falsePositives, trueNegatives, falseNegatives, eh.getComplexEventCount());
-                }));
+                }
                 return results.entrySet().stream();
             }
         }).collect(Collectors.toMap(e -> e.getKey(), e -> e.getValue()));
+        allResults.putAll(recordedResults);
+        return allResults;
     }
 
-    private void sendEvents(EPRuntime runtime, List<Event> events) {
-    	runtime.sendEvent(new TimerControlEvent(TimerControlEvent.ClockType.CLOCK_EXTERNAL));
-        for (Event e : events) {
-        	// see esper doc: "Catching up a Statement from Historical Data"
-        	// https://www.espertech.com/esper/esper-documentation/
-            runtime.sendEvent(new CurrentTimeEvent(e.getTimestamp()));
-            runtime.sendEvent(e.getAttributes(), e.getType());
+    /*
+     * A single rule gets its own statement. A group of rules gets one pattern statement without where clause,
+     * each match is routed to the ACTs of the group (see PatternGroupSubscriber).
+     * If matches are recorded, every group gets a pattern statement whose matches are stored (see MatchTupleStore).
+     * The rules evaluated by each statement are added to rulesOfStatement.
+     */
+    private List<EPStatement> createStatements(EPServiceProvider provider, String patternString, List<Rule> group, boolean record,
+            Map<Rule, EvaluationSubscriber> subscribers, Map<String, MatchTupleStore> stores, Map<EPStatement, List<Rule>> rulesOfStatement) {
+        Rule representative = group.get(0);
+        PatternAutomaton pattern = group.size() == 1 && !record ? null : compilePattern(representative);
+        if (pattern == null) {
+            List<EPStatement> statements = new ArrayList<>();
+            for (Rule rule : group) {
+                EPStatement statement = EsperUtils.createStatement(provider.getEPAdministrator(), rule);
+                EvaluationSubscriber subscriber = new EvaluationSubscriber(eh);
+                statement.setSubscriber(subscriber);
+                statement.start();
+                subscribers.put(rule, subscriber);
+                statements.add(statement);
+                rulesOfStatement.put(statement, Collections.singletonList(rule));
+            }
+            return statements;
+        }
+        if (record) {
+            MatchTupleStore store = new MatchTupleStore(pattern);
+            stores.put(patternString, store);
+            EPStatement statement = createPatternStatement(provider, representative, store);
+            rulesOfStatement.put(statement, group);
+            return Collections.singletonList(statement);
         }
+        CompiledCondition[] conditions = new CompiledCondition[group.size()];
+        EvaluationSubscriber[] groupSubscribers = new EvaluationSubscriber[group.size()];
+        for (int i = 0; i < group.size(); i++) {
+            Rule rule = group.get(i);
+            conditions[i] = rule.getAttributeConditionTreeRoot() == null ? null
+                    : new CompiledCondition(rule.getAttributeConditionTreeRoot(), pattern, getEventColumns());
+            groupSubscribers[i] = new EvaluationSubscriber(eh);
+            subscribers.put(rule, groupSubscribers[i]);
+        }
+        EPStatement statement = createPatternStatement(provider, representative, new PatternGroupSubscriber(pattern, conditions, groupSubscribers));
+        rulesOfStatement.put(statement, group);
+        return Collections.singletonList(statement);
     }
-    
-    private void initPatternGuards() {
-    	WithoutGuard.initEvents(eh.getEventData());	//one pattern guard so far
+
+    /*
+     * A statement is dominated if the best case of each of its rules is below the threshold of the rule.
+     * The best cases are added to dominatedResults. Statements that record matches are always needed.
+     */
+    private static boolean isDominated(EPStatement statement, List<Rule> rules, Map<Rule, EvaluationSubscriber> subscribers, Map<Rule, Double> thresholds,
+            int line, Map<Rule, EvaluationResult> dominatedResults) {
+        if (statement.getSubscriber() instanceof MatchTupleStore) {
+            return false;
+        }
+        Map<Rule, EvaluationResult> bestCases = new HashMap<>();
+        for (Rule rule : rules) {
+            Double threshold = thresholds.get(rule);
+            if (threshold == null) {
+                return false;
+            }
+            EvaluationResult bestCase = subscribers.get(rule).getBestCase(line);
+            if (EvaluationMeasures.f1Score(bestCase) >= threshold) {
+                return false;
+            }
+            bestCases.put(rule, bestCase);
+        }
+        dominatedResults.putAll(bestCases);
+        return true;
+    }
+
+    // statement of the ECT and window of the rule, without where clause.
+    // Its model has the aliases of the rule (see EsperUtils), i.e. the tags of the automaton of the rule and of its recorded matches.
+    private EPStatement createPatternStatement(EPServiceProvider provider, Rule rule, Object subscriber) {
+        Rule patternOnly = new Rule(rule.getEventConditionTreeRoot().copy(), rule.getWindow() == null ? null : rule.getWindow().copy(), rule.getAction());
+        EPStatement statement = EsperUtils.createStatement(provider.getEPAdministrator(), patternOnly);
+        statement.setSubscriber(subscriber);
+        statement.start();
+        return statement;
+    }
+
+    // results of the rules on the first lines of the event stream
+    private Map<Rule, EvaluationResult> evaluate(MatchTupleStore store, List<Rule> group, int lines) {
+        Map<Rule, EvaluationResult> results = new HashMap<>();
+        for (Rule rule : group) {
+            CompiledCondition condition = rule.getAttributeConditionTreeRoot() == null ? null
+                    : new CompiledCondition(rule.getAttributeConditionTreeRoot(), store.getPattern(), getEventColumns());
+            results.put(rule, EvaluationSubscriber.getResult(store.evaluate(condition), lines, eh));
+        }
+        return results;
+    }
+
+    /*
+     * The matches of the ECT and window are recorded by a pattern statement, or taken from the recorded matches,
+     * and all constants are scored against them at once (see ThresholdSweep).
+     * The matches hold the events under the aliases of the rule, so the swept operand is read from its own event.
+     * No constant is chosen if the pattern statement exceeds the budget.
+     */
+    @Override
+    public EvaluationResult optimizeConstant(Rule rule, AttributeOperator comparison) {
+        AttributeConditionTreeBuilder.repairAggregationWindowsInAct(rule, eh);
+        String patternString = rule.getPatternAsString();
+        MatchTupleStore store = matchTuples == null ? null : matchTuples.get(patternString);
+        if (store == null) {
+            PatternAutomaton pattern = compilePattern(rule);
+            if (pattern == null) {
+                return null;
+            }
+            store = new MatchTupleStore(pattern);
+            EPServiceProvider provider = esperServiceProvider.get(0);
+            synchronized (provider) {
+                EsperEnginePool.reset(provider);
+                EPStatement statement = createPatternStatement(provider, rule, store);
+                List<EPStatement> cancelled = new ArrayList<>();
+                replayDriver.replay(provider, Collections.singletonList(statement), RuleBatchScheduler.getEventTypes(rule), eh.getEventDataSize(), cancelled, null);
+                statement.destroy();
+                if (!cancelled.isEmpty()) {
+                    return null;
+                }
+            }
+            if (matchTuples != null) {
+                matchTuples.put(patternString, store);
+            }
+        }
+        ThresholdSweep sweep = new ThresholdSweep(rule.getAttributeConditionTreeRoot(), comparison, store.getPattern(), getEventColumns());
+        store.replay(sweep);
+        return sweep.apply(eh);
+    }
+
+    /**
+     * @return recorded matches, null if the ACTs are evaluated during the replay
+     */
+    public MatchTupleCache getMatchTuples() {
+        return matchTuples;
+    }
+
+    /**
+     * @return tags of the aliases in the ECT of the rule, null if the ECT contains too many events to be shared
+     */
+    private PatternAutomaton compilePattern(Rule rule) {
+        try {
+            return new PatternAutomaton(rule.getEventConditionTreeRoot(), rule.getWindow(), getEventColumns());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // column-oriented copy of the event stream for the ACTs of shared patterns, built on first use
+    private synchronized EventColumns getEventColumns() {
+        if (eventColumns == null) {
+            eventColumns = new EventColumns(eh);
+        }
+        return eventColumns;
+    }
+
+    /**
+     * Must not be called during an evaluation. If the budget limits the sub-expressions, the engines of the pool are exchanged for engines that count them.
+     * Engines passed to the evaluator directly have to be configured with a maximum of sub-expressions (see EsperEnginePool), otherwise no statement exceeds this limit.
+     * @param budget budget of each statement, see StatementBudget
+     * @param penalty result of the rules of a cancelled statement, null for a rule without hits
+     */
+    public void setStatementBudget(StatementBudget budget, EvaluationResult penalty) {
+        boolean countSubexpressions = budget.getMaxSubexpressions() > 0;
+        if (enginePool != null && !esperServiceProvider.isEmpty() && enginePool.countsSubexpressions(esperServiceProvider.get(0)) != countSubexpressions) {
+            int numberOfEngines = esperServiceProvider.size();
+            enginePool.release(esperServiceProvider.toArray(new EPServiceProvider[numberOfEngines]));
+            esperServiceProvider.clear();
+            esperServiceProvider.addAll(Arrays.asList(enginePool.acquire(eh, numberOfEngines, countSubexpressions)));
+        }
+        replayDriver.setBudget(budget);
+        this.penalty = penalty;
+    }
+
+    private EvaluationResult getPenalty() {
+        if (penalty == null) {
+            return new EvaluationResult(0, 0, eh.getRepresentedLines(eh.getEventDataSize()) - eh.getComplexEventCount(), eh.getComplexEventCount(),
+                    eh.getComplexEventCount()).toPenalty();
+        }
+        return penalty.toPenalty();
+    }
+
+    /**
+     * @return throughput of the replays of this evaluator and the number of cancelled statements
+     */
+    public EsperReplayDriver getReplayDriver() {
+        return replayDriver;
     }
 
     @Override
     public void destroy() {
-        for (EPServiceProvider ep : esperServiceProvider) {
-            ep.destroy();
+        if (enginePool != null) {
+            enginePool.release(esperServiceProvider.toArray(new EPServiceProvider[esperServiceProvider.size()]));
+        } else {
+            for (EPServiceProvider ep : esperServiceProvider) {
+                ep.destroy();
+            }
         }
         esperServiceProvider.clear();
     }
@@ -0,0 +1,287 @@
+package de.hsh.inform.swa.evaluation.esper;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Locale;
+
+import com.espertech.esper.client.EPRuntime;
+import com.espertech.esper.client.EPServiceProvider;
+import com.espertech.esper.client.EPStatement;
+import com.espertech.esper.client.time.TimerControlEvent;
+import com.espertech.esper.core.service.EPStatementSPI;
+import com.espertech.esper.pattern.pool.PatternSubexpressionPoolStmtSvc;
+
+import de.hsh.inform.swa.util.EventHandler;
+/**
+ * Feeds the event stream of an event handler into an Esper engine (see esper doc: "Catching up a Statement from Historical Data").
+ *
+ * Compared to sending a time event before every event:
+ * (1) the external clock is only advanced if the timestamp changes. Consecutive events with the same timestamp are sent as one batch.
+ *     Esper processes all schedules up to the new time at once, so idle time between two events costs a single call.
+ * (2) the replay stops as soon as none of the given statements is started any more, because no subscriber can be notified afterwards.
+ * (3) the engines deliver matches in the thread of the replay (see EsperEnginePool), so all matches have been delivered when a call to the engine returns.
+ * (4) statements that exceed the budget (see StatementBudget) are stopped during the replay, so a single pathological statement can not stall the engine.
+ * (5) statements whose rules can no longer reach their thresholds are stopped during the replay (see DominanceCheck).
+ * (6) the events and time events are prepared once and shared by the replays of all engines (see ReplayTape).
+ * (7) optionally, only the events of the types the statements refer to are sent. The clock is still advanced for every timestamp,
+ *     so the windows of the statements expire at the same time as in a replay of all events.
+ *
+ * The driver records the throughput of every replay and the number of cancelled and dominated statements. It is thread-safe and can be shared by all engines of an event handler.
+ * @author Software Architecture Research Group
+ *
+ */
+public class EsperReplayDriver {
+    private static final int STATEMENT_CHECK_INTERVAL = 1024; // events between two checks for started statements and their budget
+
+    private final ReplayTape tape;
+    private volatile StatementBudget budget = StatementBudget.UNLIMITED;
+
+    private long replays;
+    private long sentEvents;
+    private long skippedEvents;
+    private long filteredEvents;
+    private long clockAdvances;
+    private long replayNanos;
+    private double lastEventsPerSecond;
+    private long cancelledBySubexpressions;
+    private long cancelledByMatches;
+    private long dominatedStatements;
+
+    /**
+     * Decides during a replay whether a statement is still needed.
+     */
+    public interface DominanceCheck {
+        /**
+         * @param line number of replayed events. All matches of these events have been delivered, later hits are at this position or after it.
+         * @return true if the rules of the statement can no longer reach their thresholds
+         */
+        boolean isDominated(EPStatement statement, int line);
+    }
+
+    public EsperReplayDriver(EventHandler eh) {
+        this.tape = new ReplayTape(eh);
+    }
+
+    /**
+     * Replays the whole event stream. The statements have to be created and started beforehand.
+     * @param statements statements that are notified during the replay
+     * @return events per second of this replay
+     */
+    public double replay(EPServiceProvider provider, Collection<EPStatement> statements) {
+        return replay(provider, statements, new ArrayList<>());
+    }
+
+    /**
+     * Replays the whole event stream. The statements have to be created and started beforehand.
+     * @param statements statements that are notified during the replay
+     * @param cancelled statements that exceeded the budget are stopped and added to this collection. Their subscribers are incomplete.
+     * @return events per second of this replay
+     */
+    public double replay(EPServiceProvider provider, Collection<EPStatement> statements, Collection<EPStatement> cancelled) {
+        return replay(provider, statements, cancelled, null);
+    }
+
+    /**
+     * Replays the whole event stream. The statements have to be created and started beforehand.
+     * @param statements statements that are notified during the replay
+     * @param cancelled statements that exceeded the budget are stopped and added to this collection. Their subscribers are incomplete.
+     * @param dominance statements it considers dominated are stopped, null if all statements are needed until the end
+     * @return events per second of this replay
+     */
+    public double replay(EPServiceProvider provider, Collection<EPStatement> statements, Collection<EPStatement> cancelled, DominanceCheck dominance) {
+        return replay(provider, statements, tape.size(), cancelled, dominance);
+    }
+
+    /**
+     * Replays the first events of the event stream. The statements have to be created and started beforehand.
+     * @param statements statements that are notified during the replay
+     * @param lines number of events to replay, the rest of the event stream counts as skipped
+     * @param cancelled statements that exceeded the budget are stopped and added to this collection. Their subscribers are incomplete.
+     * @param dominance statements it considers dominated are stopped, null if all statements are needed until the end
+     * @return events per second of this replay
+     */
+    public double replay(EPServiceProvider provider, Collection<EPStatement> statements, int lines, Collection<EPStatement> cancelled,
+            DominanceCheck dominance) {
+        return replay(provider, statements, null, lines, cancelled, dominance);
+    }
+
+    /**
+     * Replays the events of the given types among the first events of the event stream. The statements have to be created and started beforehand.
+     * @param statements statements that are notified during the replay
+     * @param types event types the statements refer to (see RuleBatchScheduler.getEventTypes()), null if all events are sent
+     * @param lines number of events to replay, the rest of the event stream counts as skipped
+     * @param cancelled statements that exceeded the budget are stopped and added to this collection. Their subscribers are incomplete.
+     * @param dominance statements it considers dominated are stopped, null if all statements are needed until the end
+     * @return events per second of this replay, including the filtered events
+     */
+    public double replay(EPServiceProvider provider, Collection<EPStatement> statements, Collection<String> types, int lines,
+            Collection<EPStatement> cancelled, DominanceCheck dominance) {
+        long startTime = System.nanoTime();
+        StatementBudget budget = this.budget;
+        BitSet typeIds = types == null ? null : tape.getTypeIds(types);
+        EPRuntime runtime = provider.getEPRuntime();
+        runtime.sendEvent(new TimerControlEvent(TimerControlEvent.ClockType.CLOCK_EXTERNAL));
+
+        int batch = 0;
+        int filtered = 0;
+        int i = 0;
+        int nextCheck = 0; // batches of events with the same timestamp can skip a multiple of the interval
+        while (i < lines) {
+            if (i >= nextCheck) {
+                nextCheck = i + STATEMENT_CHECK_INTERVAL;
+                if (!budget.isUnlimited()) {
+                    enforce(budget, statements, cancelled);
+                }
+                if (dominance != null && i > 0) {
+                    detachDominated(statements, i, dominance);
+                }
+                if (!hasStartedStatement(statements)) {
+                    break;
+                }
+            }
+            runtime.sendEvent(tape.getTime(batch));
+            // batch of events with the same timestamp
+            int end = Math.min(lines, tape.getBatchStart(++batch));
+            do {
+                if (typeIds == null || typeIds.get(tape.getTypeId(i))) {
+                    runtime.sendEvent(tape.getPayload(i), tape.getType(i));
+                } else {
+                    filtered++;
+                }
+                i++;
+            } while (i < end);
+        }
+        return record(i, tape.size() - i, filtered, batch, System.nanoTime() - startTime);
+    }
+
+    /*
+     * Stops all started statements that exceed the budget.
+     */
+    private void enforce(StatementBudget budget, Collection<EPStatement> statements, Collection<EPStatement> cancelled) {
+        for (EPStatement statement : statements) {
+            if (!statement.isStarted()) {
+                continue;
+            }
+            if (budget.getMaxSubexpressions() > 0 && getSubexpressionCount(statement) > budget.getMaxSubexpressions()) {
+                recordCancellation(1, 0);
+            } else if (budget.getMaxMatches() > 0 && getMatchCount(statement) > budget.getMaxMatches()) {
+                recordCancellation(0, 1);
+            } else {
+                continue;
+            }
+            statement.stop();
+            cancelled.add(statement);
+        }
+    }
+
+    private void detachDominated(Collection<EPStatement> statements, int line, DominanceCheck dominance) {
+        int dominated = 0;
+        for (EPStatement statement : statements) {
+            if (statement.isStarted() && dominance.isDominated(statement, line)) {
+                statement.stop();
+                dominated++;
+            }
+        }
+        recordDominated(dominated);
+    }
+
+    /*
+     * Active sub-expressions of the followed-by operators, only counted if the engine has a maximum of sub-expressions (see EsperEnginePool), otherwise 0.
+     * Esper has no public API for this count, so it is read from the internal classes EPStatementSPI and PatternSubexpressionPoolStmtSvc of Esper 6.1,
+     * which have to be checked when Esper is upgraded.
+     */
+    private static int getSubexpressionCount(EPStatement statement) {
+        PatternSubexpressionPoolStmtSvc pool = ((EPStatementSPI) statement).getStatementContext().getPatternSubexpressionPoolSvc();
+        return pool == null ? 0 : pool.getStmtHandler().getCount();
+    }
+
+    private static long getMatchCount(EPStatement statement) {
+        Object subscriber = statement.getSubscriber();
+        if (subscriber instanceof EsperSubscriber) {
+            return ((EsperSubscriber) subscriber).getMatchCount();
+        } else if (subscriber instanceof PatternGroupSubscriber) {
+            return ((PatternGroupSubscriber) subscriber).getMatchCount();
+        } else if (subscriber instanceof MatchTupleStore) {
+            return ((MatchTupleStore) subscriber).getMatchCount();
+        }
+        return 0;
+    }
+
+    private static boolean hasStartedStatement(Collection<EPStatement> statements) {
+        for (EPStatement statement : statements) {
+            if (statement.isStarted()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void recordCancellation(int subexpressions, int matches) {
+        cancelledBySubexpressions += subexpressions;
+        cancelledByMatches += matches;
+    }
+
+    private synchronized void recordDominated(int statements) {
+        dominatedStatements += statements;
+    }
+
+    private synchronized double record(int replayed, int skipped, int filtered, int advances, long nanos) {
+        replays++;
+        sentEvents += replayed - filtered;
+        skippedEvents += skipped;
+        filteredEvents += filtered;
+        clockAdvances += advances;
+        replayNanos += nanos;
+        lastEventsPerSecond = eventsPerSecond(replayed, nanos);
+        return lastEventsPerSecond;
+    }
+
+    private static double eventsPerSecond(long events, long nanos) {
+        return nanos == 0 ? 0.0 : events * 1e9 / nanos;
+    }
+
+    /**
+     * @param budget budget of each statement in the following replays
+     */
+    public void setBudget(StatementBudget budget) {
+        this.budget = budget;
+    }
+
+    public StatementBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return number of statements that were cancelled because they exceeded the budget
+     */
+    public synchronized long getCancelledStatements() {
+        return cancelledBySubexpressions + cancelledByMatches;
+    }
+
+    /**
+     * @return number of statements that were stopped early, because their rules could no longer reach their thresholds
+     */
+    public synchronized long getDominatedStatements() {
+        return dominatedStatements;
+    }
+
+    public synchronized double getLastEventsPerSecond() {
+        return lastEventsPerSecond;
+    }
+
+    /**
+     * @return average events per second of all replays so far, including the filtered events
+     */
+    public synchronized double getEventsPerSecond() {
+        return eventsPerSecond(sentEvents + filteredEvents, replayNanos);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ENGLISH, "replay (%d replays): %d events sent, %d filtered by type, %d skipped, %d clock advances, %.0f events/sec (last replay %.0f events/sec), "
+                + "%d statements cancelled (%d sub-expressions, %d matches, %s), %d dominated statements stopped early",
+                replays, sentEvents, filteredEvents, skippedEvents, clockAdvances, getEventsPerSecond(), lastEventsPerSecond,
+                getCancelledStatements(), cancelledBySubexpressions, cancelledByMatches, budget, dominatedStatements);
+    }
+}
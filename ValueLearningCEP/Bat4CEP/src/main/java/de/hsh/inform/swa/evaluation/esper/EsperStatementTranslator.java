@@ -0,0 +1,308 @@
+package de.hsh.inform.swa.evaluation.esper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.espertech.esper.client.soda.DotExpressionItem;
+import com.espertech.esper.client.soda.EPStatementObjectModel;
+import com.espertech.esper.client.soda.Expression;
+import com.espertech.esper.client.soda.Expressions;
+import com.espertech.esper.client.soda.Filter;
+import com.espertech.esper.client.soda.FromClause;
+import com.espertech.esper.client.soda.PatternExpr;
+import com.espertech.esper.client.soda.PatternStream;
+import com.espertech.esper.client.soda.Patterns;
+import com.espertech.esper.client.soda.SelectClause;
+import com.espertech.esper.client.soda.SingleRowMethodExpression;
+
+import de.hsh.inform.swa.cep.Attribute;
+import de.hsh.inform.swa.cep.AttributeCondition;
+import de.hsh.inform.swa.cep.AttributeOperator;
+import de.hsh.inform.swa.cep.ConstantAttribute;
+import de.hsh.inform.swa.cep.Event;
+import de.hsh.inform.swa.cep.EventAttribute;
+import de.hsh.inform.swa.cep.EventCondition;
+import de.hsh.inform.swa.cep.Rule;
+import de.hsh.inform.swa.cep.operators.attributes.aggregation.AggregationAttribute;
+import de.hsh.inform.swa.cep.operators.attributes.arithmetic.AdditionOperator;
+import de.hsh.inform.swa.cep.operators.attributes.arithmetic.SubtractionOperator;
+import de.hsh.inform.swa.cep.operators.attributes.comparison.EqualToAttributeComparisonOperator;
+import de.hsh.inform.swa.cep.operators.attributes.comparison.GreaterThanAttributeComparisonOperator;
+import de.hsh.inform.swa.cep.operators.attributes.comparison.LessThanAttributeComparisonOperator;
+import de.hsh.inform.swa.cep.operators.attributes.logic.AndAttributeOperator;
+import de.hsh.inform.swa.cep.operators.attributes.logic.NotAttributeOperator;
+import de.hsh.inform.swa.cep.operators.attributes.logic.OrAttributeOperator;
+import de.hsh.inform.swa.cep.operators.events.AndEventOperator;
+import de.hsh.inform.swa.cep.operators.events.NotEventOperator;
+import de.hsh.inform.swa.cep.operators.events.OrEventOperator;
+import de.hsh.inform.swa.cep.operators.events.SequenceEventOperator;
+import de.hsh.inform.swa.cep.windows.LengthWindow;
+import de.hsh.inform.swa.cep.windows.TimeWindow;
+import de.hsh.inform.swa.cep.windows.Window;
+/**
+ * Translates a rule directly into the statement object model of Esper, so neither an EPL string is built nor parsed.
+ * The model is equivalent to the EPL of the rule (Rule.getPatternAsString and the ACT), the aliases are the same as in EventCondition.toStringWithAlias.
+ * Only aggregations differ: instead of a subquery, they call the plug-in function cep_aggregate (see AggregateFunction).
+ *
+ * Conditions of the ACT that refer to a single event are pushed into the filter of this event, e.g. [every(A0 = A((cast(TEMP, double) > 50.0)))].
+ * Esper then drops non-matching events before they reach the pattern instead of checking the whole match afterwards.
+ * A filter changes which events the pattern waits for, e.g. in (A0 = A -> C0 = C) the first C after an A is replaced by the first matching C.
+ * Therefore, conditions are only pushed down if every operand of the ECT consists of a single event (events, OR, NOT).
+ * Each such event completes the pattern on its own, so a filtered event is equivalent to a rejected match.
+ * @author Software Architecture Research Group
+ *
+ */
+public class EsperStatementTranslator {
+
+    public static EPStatementObjectModel translate(Rule rule) {
+        AttributeCondition act = rule.getAttributeConditionTreeRoot();
+        EventCondition ect = rule.getEventConditionTreeRoot();
+        Map<String, List<AttributeCondition>> filters = new HashMap<>();
+        Set<String> filteredAliases = new HashSet<>();
+        Set<String> ectAliases = new LinkedHashSet<>(); // in the order of the pattern
+        AttributeCondition where = act;
+
+        if (act != null && isPushdownSafe(ect)) {
+            List<AttributeCondition> conjuncts = new ArrayList<>();
+            addConjuncts(act, conjuncts);
+            List<String> aliases = new ArrayList<>();
+            for (AttributeCondition conjunct : conjuncts) {
+                String alias = getSingleAlias(conjunct);
+                aliases.add(alias);
+                if (alias != null) {
+                    filters.computeIfAbsent(alias, a -> new ArrayList<>()).add(conjunct);
+                }
+            }
+            PatternExpr pattern = toPattern(rule, ectAliases, filters, filteredAliases);
+
+            // events of an OR are missing in the matches of the other operands. Their conditions stay in the where clause to reject these matches.
+            boolean keepFilteredConditions = containsOr(ect);
+            where = null;
+            for (int i = 0; i < conjuncts.size(); i++) {
+                if (keepFilteredConditions || !filteredAliases.contains(aliases.get(i))) {
+                    where = where == null ? conjuncts.get(i) : new AndAttributeOperator(where, conjuncts.get(i));
+                }
+            }
+            return toStatement(pattern, where, ectAliases);
+        }
+        return toStatement(toPattern(rule, ectAliases, filters, filteredAliases), where, ectAliases);
+    }
+
+    private static EPStatementObjectModel toStatement(PatternExpr pattern, AttributeCondition where, Set<String> aliases) {
+        EPStatementObjectModel model = new EPStatementObjectModel();
+        model.setSelectClause(SelectClause.createWildcard());
+        model.setFromClause(FromClause.create(PatternStream.create(pattern)));
+        if (where != null) {
+            model.setWhereClause(toExpression(where, false, aliases));
+        }
+        return model;
+    }
+
+    // every(ECT) where timer:within(window)
+    private static PatternExpr toPattern(Rule rule, Set<String> aliases, Map<String, List<AttributeCondition>> filters, Set<String> filteredAliases) {
+        PatternExpr ect = toPattern(rule.getEventConditionTreeRoot(), aliases, filters, filteredAliases);
+        if (rule.getWindow() == null) {
+            return Patterns.every(ect);
+        }
+        return Patterns.every(Patterns.guard("timer", "within", new Expression[] { toExpression(rule.getWindow()) }, ect));
+    }
+
+    private static PatternExpr toPattern(EventCondition condition, Set<String> aliasesSoFar, Map<String, List<AttributeCondition>> filters,
+            Set<String> filteredAliases) {
+        if (condition instanceof Event) {
+            String event = condition.toStringWithAlias(aliasesSoFar); // allocates the alias
+            String alias = event.substring(0, event.indexOf(" = "));
+            String type = ((Event) condition).getType();
+            List<AttributeCondition> conjuncts = filters.get(alias);
+            if (conjuncts == null) {
+                return Patterns.filter(type, alias);
+            }
+            filteredAliases.add(alias);
+            List<Expression> filter = new ArrayList<>();
+            for (AttributeCondition conjunct : conjuncts) {
+                filter.add(toExpression(conjunct, true, aliasesSoFar));
+            }
+            return Patterns.filter(Filter.create(type, filter.size() == 1 ? filter.get(0) : and(filter)), alias);
+        } else if (condition instanceof NotEventOperator) {
+            NotEventOperator not = (NotEventOperator) condition;
+            PatternExpr pattern = toPattern(not.getSubconditions()[0], aliasesSoFar, filters, filteredAliases);
+            return Patterns.guard("cep", "without", new Expression[] { Expressions.constant(not.getNegatedEvent().getType()) }, pattern);
+        }
+        EventCondition[] children = condition.getSubconditions();
+        PatternExpr left = toPattern(children[0], aliasesSoFar, filters, filteredAliases);
+        PatternExpr right = toPattern(children[1], aliasesSoFar, filters, filteredAliases);
+        if (condition instanceof SequenceEventOperator) {
+            return Patterns.followedBy(left, right);
+        } else if (condition instanceof AndEventOperator) {
+            return Patterns.and(left, right);
+        } else if (condition instanceof OrEventOperator) {
+            return Patterns.or(left, right);
+        }
+        throw new IllegalArgumentException("Unknown event condition: " + condition.getClass().getName());
+    }
+
+    private static Expression and(List<Expression> expressions) {
+        Expression and = expressions.get(0);
+        for (int i = 1; i < expressions.size(); i++) {
+            and = Expressions.and(and, expressions.get(i));
+        }
+        return and;
+    }
+
+    /*
+     * inside a filter, the properties of the event are referenced without alias.
+     * Filters do not convert Integer properties implicitly when they are compared with the double constants of the ACT.
+     */
+    private static Expression toExpression(AttributeCondition condition, boolean inFilter, Set<String> aliases) {
+        if (condition instanceof AttributeOperator) {
+            Attribute[] operands = ((AttributeOperator) condition).getOperands();
+            Expression a = toExpression(operands[0], inFilter, aliases), b = toExpression(operands[1], inFilter, aliases);
+            if (condition instanceof GreaterThanAttributeComparisonOperator) {
+                return Expressions.gt(a, b);
+            } else if (condition instanceof LessThanAttributeComparisonOperator) {
+                return Expressions.lt(a, b);
+            } else if (condition instanceof EqualToAttributeComparisonOperator) {
+                return Expressions.eq(a, b);
+            }
+            throw new IllegalArgumentException("Unknown comparison: " + condition.getClass().getName());
+        } else if (condition instanceof NotAttributeOperator) {
+            return Expressions.not(toExpression(condition.getSubconditions()[0], inFilter, aliases));
+        }
+        AttributeCondition[] children = condition.getSubconditions();
+        Expression a = toExpression(children[0], inFilter, aliases), b = toExpression(children[1], inFilter, aliases);
+        if (condition instanceof AndAttributeOperator) {
+            return Expressions.and(a, b);
+        } else if (condition instanceof OrAttributeOperator) {
+            return Expressions.or(a, b);
+        }
+        throw new IllegalArgumentException("Unknown attribute condition: " + condition.getClass().getName());
+    }
+
+    private static Expression toExpression(Attribute attribute, boolean inFilter, Set<String> aliases) {
+        if (attribute instanceof AggregationAttribute) {
+            return toAggregate((AggregationAttribute) attribute, aliases);
+        } else if (attribute instanceof EventAttribute) {
+            EventAttribute eventAttribute = (EventAttribute) attribute;
+            if (inFilter) {
+                return Expressions.cast(eventAttribute.getAttributeName(), "double");
+            }
+            return Expressions.property(eventAttribute.getAlias() + "." + eventAttribute.getAttributeName());
+        } else if (attribute instanceof ConstantAttribute) {
+            return Expressions.constant(((ConstantAttribute) attribute).getValue());
+        } else if (attribute instanceof AdditionOperator || attribute instanceof SubtractionOperator) {
+            Attribute[] operands = ((AttributeOperator) attribute).getOperands();
+            Expression a = toExpression(operands[0], inFilter, aliases), b = toExpression(operands[1], inFilter, aliases);
+            return attribute instanceof AdditionOperator ? Expressions.plus(a, b) : Expressions.minus(a, b);
+        }
+        throw new IllegalArgumentException("Unknown attribute: " + attribute.getClass().getName());
+    }
+
+    /*
+     * cep_aggregate("AVG", type, "x", window, A0._lineNumber, ...) instead of the subquery (SELECT AVG(x) FROM type#time(window)), see AggregateFunction.
+     * The window ends at the last event of the match, i.e. the latest line number of the tagged events.
+     */
+    private static Expression toAggregate(AggregationAttribute aggregation, Set<String> aliases) {
+        String type = aggregation.getTemplateEvent() != null ? aggregation.getTemplateEvent().getType() : aggregation.getAlias().substring(0, 1);
+        Window window = aggregation.getWindow();
+        List<Expression> parameters = new ArrayList<>();
+        parameters.add(Expressions.constant(aggregation.getAggregationFunction()));
+        parameters.add(Expressions.constant(type));
+        parameters.add(Expressions.constant(aggregation.getAttributeName()));
+        parameters.add(Expressions.constant(window == null ? null : Math.toIntExact(window.getValue())));
+        for (String alias : aliases) {
+            parameters.add(Expressions.property(alias + "._lineNumber"));
+        }
+        return new SingleRowMethodExpression(Collections.singletonList(new DotExpressionItem(AggregateFunction.NAME, parameters, false)));
+    }
+
+    // a plain number is interpreted as seconds, like in the EPL of the rule
+    private static Expression toExpression(Window window) {
+        if (window instanceof TimeWindow) {
+            return Expressions.timePeriod(null, null, null, Math.toIntExact(window.getValue()), null);
+        } else if (window instanceof LengthWindow) {
+            return Expressions.constant(((LengthWindow) window).getLength());
+        }
+        return Expressions.constant(null);
+    }
+
+    private static boolean isPushdownSafe(EventCondition condition) {
+        if (condition instanceof Event) {
+            return true;
+        }
+        if (!(condition instanceof OrEventOperator) && !(condition instanceof NotEventOperator)) {
+            return false; // AND, sequence
+        }
+        for (EventCondition child : condition.getSubconditions()) {
+            if (!isPushdownSafe(child)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsOr(EventCondition condition) {
+        if (condition instanceof OrEventOperator) {
+            return true;
+        }
+        if (condition.getSubconditions() != null) {
+            for (EventCondition child : condition.getSubconditions()) {
+                if (containsOr(child)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void addConjuncts(AttributeCondition condition, List<AttributeCondition> conjuncts) {
+        if (condition instanceof AndAttributeOperator) {
+            for (AttributeCondition child : condition.getSubconditions()) {
+                addConjuncts(child, conjuncts);
+            }
+        } else {
+            conjuncts.add(condition);
+        }
+    }
+
+    /**
+     * @return alias of the only event the condition refers to, null if it refers to several events, to none or contains an aggregation
+     */
+    private static String getSingleAlias(AttributeCondition condition) {
+        Set<String> aliases = new HashSet<>();
+        return collectAliases(condition, aliases) && aliases.size() == 1 ? aliases.iterator().next() : null;
+    }
+
+    private static boolean collectAliases(AttributeCondition condition, Set<String> aliases) {
+        if (condition instanceof AttributeOperator) {
+            for (Attribute operand : ((AttributeOperator) condition).getOperands()) {
+                if (!collectAliases(operand, aliases)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        for (AttributeCondition child : condition.getSubconditions()) {
+            if (!collectAliases(child, aliases)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean collectAliases(Attribute attribute, Set<String> aliases) {
+        if (attribute instanceof AggregationAttribute) {
+            return false; // aggregate over its own window, which ends at the last event of the match
+        } else if (attribute instanceof EventAttribute) {
+            aliases.add(attribute.getAlias());
+        } else if (attribute instanceof AttributeOperator) { // arithmetic operation
+            return collectAliases((AttributeCondition) attribute, aliases);
+        }
+        return true;
+    }
+}
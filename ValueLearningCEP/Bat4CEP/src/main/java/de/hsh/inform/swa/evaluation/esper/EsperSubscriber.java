@@ -1,35 +1,49 @@
 package de.hsh.inform.swa.evaluation.esper;
 
+import java.util.BitSet;
 import java.util.Map;
-import java.util.OptionalInt;
-import java.util.Set;
-import java.util.concurrent.ConcurrentSkipListSet;
 
-import com.espertech.esper.event.map.MapEventBean;
+import com.espertech.esper.client.EventBean;
 /**
  * Subscriber class that receives all matches from the engine and determines the number of hits. 
+ * Hits are recorded as set bits, the index of a bit is the position of the hit in the event stream.
  * @author Software Architecture Research Group
  *
  */
 public class EsperSubscriber {
-	private Set<Integer> hits = new ConcurrentSkipListSet<Integer>();
+	private final BitSet hits = new BitSet();
+	private long matches;
 
     public EsperSubscriber() {}
 
-    public void update(Map<String, MapEventBean> events) {
+    public synchronized void update(Map<String, EventBean> events) {
         // The argument is a map of all events that match the subscribed rule. We need to grab the latest one.
         // Thats the one with the highest line number
-        OptionalInt highestCount = events.values().stream().mapToInt(bean -> (Integer) bean.getProperties().get("_lineNumber")).max();
-        if (highestCount.isPresent()) {
-            hits.add(highestCount.getAsInt() + getOffset());
+        matches++;
+        int highestCount = -1;
+        for (EventBean bean : events.values()) {
+            highestCount = Math.max(highestCount, (Integer) bean.get("_lineNumber"));
+        }
+        if (highestCount >= 0) {
+            hits.set(highestCount + getOffset());
         }
     }
 
     public int getOffset() { //needed for inheritance purposes
     	return 0;
     }
-    public Set<Integer> getFiredPosition() {
+    /**
+     * @return positions of all hits. Must not be modified.
+     */
+    public synchronized BitSet getFiredPosition() {
         return hits;
     }
 
+    /**
+     * @return number of matches received so far, including matches at the same position
+     */
+    public synchronized long getMatchCount() {
+        return matches;
+    }
+
 }
@@ -1,19 +1,69 @@
- package de.hsh.inform.swa.evaluation.esper;
+package de.hsh.inform.swa.evaluation.esper;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import com.espertech.esper.client.EPAdministrator;
 import com.espertech.esper.client.EPStatement;
+import com.espertech.esper.client.soda.EPStatementObjectModel;
 
 import de.hsh.inform.swa.cep.Rule;
 
 /**
- * Helper class that compiles a rule to an Esper EPL statement.
+ * Helper class that compiles a rule to an Esper statement.
+ *
+ * Statements are created from the statement object model of the rule (see EsperStatementTranslator), so Esper does not parse any EPL.
+ * Rules with the same canonical form share one model, because the search evaluates many equivalent rules.
+ * Rules without ACT are pattern statements whose matches are read by alias (see PatternGroupSubscriber, MatchTupleStore),
+ * so they share a model only with rules of the same pattern including its aliases. Equivalent patterns can assign the aliases differently,
+ * e.g. (B0=B -> A0=A) and A1=A and A0=A and (B0=B -> A1=A).
+ * Rules that differ only in their constants get models of their own: Esper maps a prepared statement to a statement specification
+ * on every create just like an object model, so binding constants to a shared template would not save more than the translation.
  * @author Software Architecture Research Group
  */
 public class EsperUtils {
+    private static final int MAX_CACHED_MODELS = 10000;
+
+    private static final Map<Object, EPStatementObjectModel> MODELS = Collections.synchronizedMap(new LruMap<>(MAX_CACHED_MODELS));
+
     public static EPStatement createStatement(EPAdministrator administrator, Rule rule){
-        if(rule.getAttributeConditionTreeRoot() == null) {
-            return administrator.createEPL(String.format("select * from pattern [%s]", rule.getPatternAsString()));
+        // the aggregate functions of the ACT look up the event handler of the engine in the user object of the statement
+        return administrator.create(getStatementModel(rule), null, administrator.getConfiguration().getTransientConfiguration().get(EventHandlerUtils.EVENT_HANDLER));
+    }
+
+    /**
+     * @return the statement object model of the rule with all constants. The model is shared and must not be modified.
+     */
+    public static EPStatementObjectModel getStatementModel(Rule rule) {
+        return MODELS.computeIfAbsent(getModelKey(rule), key -> EsperStatementTranslator.translate(rule));
+    }
+
+    // the canonical form of a rule with ACT, the pattern with its aliases of a rule without ACT
+    private static Object getModelKey(Rule rule) {
+        if (rule.getAttributeConditionTreeRoot() == null) {
+            return rule.getPatternAsString();
+        }
+        return rule.getCanonicalForm();
+    }
+
+    public static String toEPL(Rule rule) {
+        return getStatementModel(rule).toEPL();
+    }
+
+    // least recently used entries are evicted first
+    private static final class LruMap<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+        private final int maxSize;
+
+        LruMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxSize;
         }
-        return administrator.createEPL(String.format("select * from pattern [%s] where %s", rule.getPatternAsString(), rule.getAttributeConditionTreeRoot()));
     }
 }
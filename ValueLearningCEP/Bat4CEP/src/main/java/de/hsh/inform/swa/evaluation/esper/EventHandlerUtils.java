@@ -1,6 +1,8 @@
 package de.hsh.inform.swa.evaluation.esper;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -9,40 +11,61 @@ import com.espertech.esper.client.Configuration;
 import de.hsh.inform.swa.cep.Event;
 import de.hsh.inform.swa.util.EventHandler;
 /**
- * Configuration class. Adds event types and pattern guards to the data stream.
+ * Configuration class. Adds event types, pattern guards and functions to the data stream.
+ * Events are represented as object arrays with a fixed property order (see EventHandler.getEventPayloads).
  * @author Software Architecture Research Group
  */
 public class EventHandlerUtils {
+	/**
+	 * key of the event handler in the transient configuration of an engine
+	 */
+	public static final String EVENT_HANDLER = "de.hsh.inform.swa.eventHandler";
 
 	public static Configuration toEsperConfiguration(EventHandler eventHandler) {
 		Configuration configuration = new Configuration();
 
-		Map<String, HashMap<String, Object>> data = new HashMap<>();
+		for (Entry<String, Map<String, Object>> entry1 : getEventSchema(eventHandler).entrySet()) {
+			String[] propertyNames = entry1.getValue().keySet().toArray(new String[0]);
+			Object[] propertyTypes = entry1.getValue().values().toArray();
+			configuration.addEventType(entry1.getKey(), propertyNames, propertyTypes);
+		}
 
-		for (Event e : eventHandler.getWithoutComplexEvent()) {
-			HashMap<String, Object> typeMap = data.get(e.getType());
-			if (typeMap == null) {
-				typeMap = new HashMap<>();
-				data.put(e.getType(), typeMap);
-			}
-			for (Entry<String, Object> attr : e.getAttributes().entrySet()) {
-				if (!typeMap.containsKey(attr.getKey())) {
-					typeMap.put(attr.getKey(), attr.getValue().getClass());
-				}
+		//register self-written guards and functions
+		configuration.addPlugInPatternGuard("cep", "without", WithoutGuardFactory.class.getName());
+		configuration.addPlugInSingleRowFunction(AggregateFunction.NAME, AggregateFunction.class.getName(), "aggregate");
+		configuration.getTransientConfiguration().put(EVENT_HANDLER, eventHandler); // passed by reference, used by the guards of this engine only
+
+		return configuration;
+	}
 
+	/**
+	 * @return properties and their types of each event type, in the order of the event payloads.
+	 * Engines for event handlers with equal schemas are interchangeable.
+	 */
+	public static Map<String, Map<String, Object>> getEventSchema(EventHandler eventHandler) {
+		Map<String, Map<String, Object>> data = new HashMap<>();
+		Map<String, String[]> eventProperties = eventHandler.getEventProperties();
+		List<Event> events = eventHandler.getEventData();
+		Object[][] payloads = eventHandler.getEventPayloads();
+
+		for (Entry<String, String[]> entry : eventProperties.entrySet()) {
+			Map<String, Object> typeMap = new LinkedHashMap<>();
+			for (String property : entry.getValue()) {
+				typeMap.put(property, Object.class);
 			}
+			data.put(entry.getKey(), typeMap);
 		}
-
-		for (Entry<String, HashMap<String, Object>> entry1 : data.entrySet()) {
-			configuration.addEventType(entry1.getKey(), entry1.getValue());
+		// the type of a property is the class of its first value
+		for (int i = 0; i < events.size(); i++) {
+			String[] properties = eventProperties.get(events.get(i).getType());
+			Map<String, Object> typeMap = data.get(events.get(i).getType());
+			for (int j = 0; j < properties.length; j++) {
+				if (payloads[i][j] != null && typeMap.get(properties[j]) == Object.class) {
+					typeMap.put(properties[j], payloads[i][j].getClass());
+				}
+			}
 		}
-		
-		configuration.addEventType(eventHandler.getComplexEvent().getType(), new HashMap<String,Object>());
-		
-		//register self-written guards
-		configuration.addPlugInPatternGuard("cep", "without", WithoutGuardFactory.class.getName());
-		
-		return configuration;
+		return data;
 	}
 
 }
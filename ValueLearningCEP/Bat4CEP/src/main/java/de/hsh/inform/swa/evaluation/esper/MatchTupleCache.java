@@ -0,0 +1,61 @@
+package de.hsh.inform.swa.evaluation.esper;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+/**
+ * Cache of the recorded matches of each pattern (ECT and window), see MatchTupleStore.
+ * The size of the cache is limited by the total number of stored line numbers, least recently used patterns are evicted first.
+ * Matches are only valid for the event stream they were recorded on, so every evaluator needs its own cache.
+ * The patterns are keyed with their aliases (see Rule.getPatternAsString), because the tuples hold the events under the tags of these aliases.
+ * Equivalent patterns with other aliases are recorded separately.
+ * @author Software Architecture Research Group
+ *
+ */
+public class MatchTupleCache {
+    private final long maxSize;
+    private final LinkedHashMap<String, MatchTupleStore> stores = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxSize maximum number of stored line numbers
+     */
+    public MatchTupleCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param pattern pattern of a rule, see Rule.getPatternAsString
+     * @return recorded matches of the pattern or null
+     */
+    public synchronized MatchTupleStore get(String pattern) {
+        MatchTupleStore store = stores.get(pattern);
+        if (store == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return store;
+    }
+
+    public synchronized void put(String pattern, MatchTupleStore store) {
+        if (store.size() > maxSize) {
+            return;
+        }
+        MatchTupleStore old = stores.put(pattern, store);
+        size += store.size() - (old == null ? 0 : old.size());
+        Iterator<Map.Entry<String, MatchTupleStore>> eldest = stores.entrySet().iterator();
+        while (size > maxSize) {
+            size -= eldest.next().getValue().size();
+            eldest.remove();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ENGLISH, "match tuples: %d patterns, %d line numbers, %d hits, %d misses", stores.size(), size, hits, misses);
+    }
+}
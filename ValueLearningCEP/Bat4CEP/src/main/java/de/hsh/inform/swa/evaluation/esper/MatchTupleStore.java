@@ -0,0 +1,91 @@
+package de.hsh.inform.swa.evaluation.esper;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+import com.espertech.esper.client.EventBean;
+
+import de.hsh.inform.swa.evaluation.matcher.CompiledCondition;
+import de.hsh.inform.swa.evaluation.matcher.PatternAutomaton;
+import de.hsh.inform.swa.evaluation.matcher.PatternMatcher.MatchListener;
+/**
+ * Subscriber class of a pattern statement without where clause that records all matches of an ECT and window.
+ * Each match is stored as tuple of line numbers, one per tag of the pattern followed by the line of the last event.
+ * Any ACT can then be evaluated against the recorded matches without replaying the event stream again.
+ * @author Software Architecture Research Group
+ *
+ */
+public class MatchTupleStore {
+    private final PatternAutomaton pattern;
+    private final int tupleSize;
+    private int[] tuples;
+    private int size;
+
+    public MatchTupleStore(PatternAutomaton pattern) {
+        this.pattern = pattern;
+        this.tupleSize = pattern.getTagCount() + 1;
+        this.tuples = new int[tupleSize * 16];
+    }
+
+    public synchronized void update(Map<String, EventBean> events) {
+        int[] tagLines = new int[pattern.getTagCount()];
+        int line = PatternGroupSubscriber.getTagLines(pattern, events, tagLines);
+        if (size + tupleSize > tuples.length) {
+            tuples = Arrays.copyOf(tuples, Math.max(tuples.length * 2, size + tupleSize));
+        }
+        System.arraycopy(tagLines, 0, tuples, size, tagLines.length);
+        tuples[size + tagLines.length] = line;
+        size += tupleSize;
+    }
+
+    /**
+     * @param condition compiled ACT, null if the rule has no ACT
+     * @return hits of the matches that fulfill the condition. Like in EvaluationSubscriber, a hit is the line after the last matched event.
+     */
+    public synchronized BitSet evaluate(CompiledCondition condition) {
+        BitSet hits = new BitSet();
+        int[] tagLines = new int[tupleSize - 1];
+        for (int i = 0; i < size; i += tupleSize) {
+            int line = tuples[i + tagLines.length];
+            if (condition == null) {
+                hits.set(line + 1);
+                continue;
+            }
+            System.arraycopy(tuples, i, tagLines, 0, tagLines.length);
+            if (condition.test(tagLines, line)) {
+                hits.set(line + 1);
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * passes all recorded matches to the listener, in the order they were recorded
+     */
+    public synchronized void replay(MatchListener listener) {
+        int[] tagLines = new int[tupleSize - 1];
+        for (int i = 0; i < size; i += tupleSize) {
+            System.arraycopy(tuples, i, tagLines, 0, tagLines.length);
+            listener.onMatch(tagLines, tuples[i + tagLines.length]);
+        }
+    }
+
+    public PatternAutomaton getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @return number of recorded matches
+     */
+    public synchronized int getMatchCount() {
+        return size / tupleSize;
+    }
+
+    /**
+     * @return number of stored line numbers
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
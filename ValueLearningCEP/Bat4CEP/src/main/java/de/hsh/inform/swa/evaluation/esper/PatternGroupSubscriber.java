@@ -0,0 +1,71 @@
+package de.hsh.inform.swa.evaluation.esper;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.espertech.esper.client.EventBean;
+
+import de.hsh.inform.swa.evaluation.matcher.CompiledCondition;
+import de.hsh.inform.swa.evaluation.matcher.PatternAutomaton;
+/**
+ * Subscriber class of a pattern statement that is shared by several rules with the same ECT and window.
+ * The statement has no where clause. Each match is checked against the ACT of every rule and passed on to the subscribers of the rules it fulfills.
+ * @author Software Architecture Research Group
+ *
+ */
+public class PatternGroupSubscriber {
+    private final PatternAutomaton pattern;
+    private final CompiledCondition[] conditions;
+    private final EsperSubscriber[] subscribers;
+    private long matches;
+
+    /**
+     * @param conditions compiled ACT of each rule, null if the rule has no ACT
+     * @param subscribers subscriber of each rule
+     */
+    public PatternGroupSubscriber(PatternAutomaton pattern, CompiledCondition[] conditions, EsperSubscriber[] subscribers) {
+        this.pattern = pattern;
+        this.conditions = conditions;
+        this.subscribers = subscribers;
+    }
+
+    public synchronized void update(Map<String, EventBean> events) {
+        matches++;
+        int[] tagLines = new int[pattern.getTagCount()];
+        int line = getTagLines(pattern, events, tagLines);
+        for (int i = 0; i < conditions.length; i++) {
+            if (conditions[i] == null || conditions[i].test(tagLines, line)) {
+                subscribers[i].update(events);
+            }
+        }
+    }
+
+    /**
+     * @return number of matches of the pattern so far, regardless of the ACTs
+     */
+    public synchronized long getMatchCount() {
+        return matches;
+    }
+
+    /**
+     * @param tagLines is filled with the line numbers of the matched events, indexed by tag. -1 if the tag is not part of the match.
+     * @return line number of the last event of the match
+     */
+    static int getTagLines(PatternAutomaton pattern, Map<String, EventBean> events, int[] tagLines) {
+        Arrays.fill(tagLines, -1);
+        int line = -1;
+        for (Entry<String, EventBean> event : events.entrySet()) {
+            if (event.getValue() == null) {
+                continue; // operand of an OR that did not match
+            }
+            int lineNumber = (Integer) event.getValue().get("_lineNumber");
+            int tag = pattern.getTag(event.getKey());
+            if (tag >= 0) {
+                tagLines[tag] = lineNumber;
+            }
+            line = Math.max(line, lineNumber);
+        }
+        return line;
+    }
+}
@@ -0,0 +1,97 @@
+package de.hsh.inform.swa.evaluation.esper;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.espertech.esper.client.time.CurrentTimeEvent;
+
+import de.hsh.inform.swa.cep.Event;
+import de.hsh.inform.swa.util.EventHandler;
+/**
+ * Event stream of an event handler, prepared once for the replays of all engines (see EsperReplayDriver).
+ *
+ * The tape is immutable, so all engines read it at their own pace and no engine has to wait for another one.
+ * (1) payloads: property values of each event (see EventHandler.getEventPayloads()) and its type. Types are numbered as well,
+ *     so a replay can skip the events of types none of its statements refers to.
+ * (2) batches: consecutive events with the same timestamp. Each batch has one time event that advances the external clock to its timestamp.
+ *     Time events are not modified by Esper, so a replay sends the prepared ones instead of allocating new ones.
+ * @author Software Architecture Research Group
+ *
+ */
+final class ReplayTape {
+    private final Object[][] payloads;
+    private final String[] types;
+    private final int[] typeIds;
+    private final Map<String, Integer> typeIdOfType = new HashMap<>();
+    private final int[] batchStarts; // first line of each batch, followed by the number of lines
+    private final CurrentTimeEvent[] times;
+
+    ReplayTape(EventHandler eh) {
+        List<Event> events = eh.getEventData();
+        this.payloads = eh.getEventPayloads();
+        this.types = new String[events.size()];
+        this.typeIds = new int[events.size()];
+        int batches = 0;
+        for (int line = 0; line < events.size(); line++) {
+            types[line] = events.get(line).getType();
+            typeIds[line] = typeIdOfType.computeIfAbsent(types[line], type -> typeIdOfType.size());
+            if (line == 0 || events.get(line).getTimestamp() != events.get(line - 1).getTimestamp()) {
+                batches++;
+            }
+        }
+        this.batchStarts = new int[batches + 1];
+        this.times = new CurrentTimeEvent[batches];
+        int batch = 0;
+        for (int line = 0; line < events.size(); line++) {
+            if (line == 0 || events.get(line).getTimestamp() != events.get(line - 1).getTimestamp()) {
+                batchStarts[batch] = line;
+                times[batch++] = new CurrentTimeEvent(events.get(line).getTimestamp());
+            }
+        }
+        batchStarts[batches] = events.size();
+    }
+
+    int size() {
+        return types.length;
+    }
+
+    Object[] getPayload(int line) {
+        return payloads[line];
+    }
+
+    String getType(int line) {
+        return types[line];
+    }
+
+    int getTypeId(int line) {
+        return typeIds[line];
+    }
+
+    /**
+     * @return ids of the given types, types that do not occur in the event stream are left out
+     */
+    BitSet getTypeIds(Collection<String> types) {
+        BitSet ids = new BitSet();
+        for (String type : types) {
+            Integer id = typeIdOfType.get(type);
+            if (id != null) {
+                ids.set(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return first line of the batch, the number of lines if the batch is behind the last one
+     */
+    int getBatchStart(int batch) {
+        return batchStarts[batch];
+    }
+
+    CurrentTimeEvent getTime(int batch) {
+        return times[batch];
+    }
+}
@@ -0,0 +1,161 @@
+package de.hsh.inform.swa.evaluation.esper;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import de.hsh.inform.swa.cep.Attribute;
+import de.hsh.inform.swa.cep.AttributeCondition;
+import de.hsh.inform.swa.cep.AttributeOperator;
+import de.hsh.inform.swa.cep.Event;
+import de.hsh.inform.swa.cep.EventCondition;
+import de.hsh.inform.swa.cep.Rule;
+import de.hsh.inform.swa.cep.operators.attributes.aggregation.AggregationAttribute;
+import de.hsh.inform.swa.cep.operators.events.NotEventOperator;
+/**
+ * Helper class that distributes rules among several Esper engines.
+ * The rules are packed by their estimated costs (longest processing time first), so that all engines finish at roughly the same time.
+ *
+ * The costs of a rule are estimated relative to each other:
+ * (1) every node of the ECT costs more the longer the window is, since more partial matches are alive at the same time
+ * (2) every NOT guard is checked once per match
+ * (3) the ACT is checked once per match, every aggregation in it is a lookup in the aggregate index (see AggregateFunction)
+ * Rules with the same pattern are evaluated by one statement (see EsperEvaluator), so a group of rules costs its pattern once and the ACTs of all its rules.
+ *
+ * An engine only receives the events of the types its statements refer to (see EsperReplayDriver).
+ * So among the batches that stay balanced, a rule is added to the one that already refers to most of its event types.
+ * @author Software Architecture Research Group
+ *
+ */
+public class RuleBatchScheduler {
+
+	/**
+	 * @param rules rules to distribute
+	 * @param numberOfBatches number of available engines
+	 * @return at most numberOfBatches non-empty batches with similar costs
+	 */
+    public static List<List<Rule>> partition(List<Rule> rules, int numberOfBatches) {
+        return partitionGroups(rules.stream().map(Collections::singletonList).collect(Collectors.toList()), numberOfBatches);
+    }
+
+    /**
+     * @param groups groups of rules with the same pattern, each group is evaluated by one statement
+     * @param numberOfBatches number of available engines
+     * @return at most numberOfBatches non-empty batches with similar costs, each group is represented by its first rule
+     */
+    public static List<List<Rule>> partitionGroups(List<List<Rule>> groups, int numberOfBatches) {
+        List<Batch> batches = new ArrayList<>();
+        for (int i = 0; i < Math.min(numberOfBatches, groups.size()); i++) {
+            batches.add(new Batch());
+        }
+        List<Map.Entry<Rule, Double>> sortedRules = groups.stream().map(group -> new SimpleEntry<>(group.get(0), estimateCost(group)))
+                .sorted(Map.Entry.<Rule, Double>comparingByValue().reversed()).collect(Collectors.toList());
+        for (Map.Entry<Rule, Double> rule : sortedRules) {
+            Set<String> types = getEventTypes(rule.getKey());
+            double cheapest = batches.stream().mapToDouble(batch -> batch.cost).min().getAsDouble();
+            // a batch is balanced if it is not more expensive than the cheapest batch plus the rule itself
+            Batch batch = batches.stream().filter(candidate -> candidate.cost <= cheapest + rule.getValue())
+                    .min(Comparator.<Batch>comparingInt(candidate -> candidate.countNewTypes(types)).thenComparingDouble(candidate -> candidate.cost)).get();
+            batch.rules.add(rule.getKey());
+            batch.types.addAll(types);
+            batch.cost += rule.getValue();
+        }
+        return batches.stream().map(batch -> batch.rules).collect(Collectors.toList());
+    }
+
+    /**
+     * @return types of the events the statement of the rule has to receive, i.e. the events of the ECT.
+     *         NOT guards (see WithoutGuard) and aggregations (see AggregateFunction) look up the other events in the event handler.
+     */
+    public static Set<String> getEventTypes(Rule rule) {
+        Set<String> types = new HashSet<>();
+        addEventTypes(rule.getEventConditionTreeRoot(), types);
+        return types;
+    }
+
+    private static void addEventTypes(EventCondition condition, Set<String> types) {
+        if (condition instanceof Event) {
+            types.add(((Event) condition).getType());
+        } else if (condition.getSubconditions() != null) {
+            for (EventCondition child : condition.getSubconditions()) {
+                addEventTypes(child, types);
+            }
+        }
+    }
+
+    public static double estimateCost(Rule rule) {
+        return estimateCost(Collections.singletonList(rule));
+    }
+
+    /**
+     * @param group rules with the same pattern
+     */
+    public static double estimateCost(List<Rule> group) {
+        Rule pattern = group.get(0);
+        double windowFactor = 1 + Math.log1p(pattern.getWindow() == null ? 0 : pattern.getWindow().getValue());
+        double cost = pattern.getEventConditionTreeRoot().getNumberOfNodes() * windowFactor + countNotGuards(pattern.getEventConditionTreeRoot());
+        for (Rule rule : group) {
+            if (rule.getAttributeConditionTreeRoot() != null) {
+                cost += 1 + estimateCost(rule.getAttributeConditionTreeRoot());
+            }
+        }
+        return cost;
+    }
+
+    private static int countNotGuards(EventCondition condition) {
+        if (condition.getSubconditions() == null) {
+            return 0; // event
+        }
+        int guards = condition instanceof NotEventOperator ? 1 : 0;
+        for (EventCondition child : condition.getSubconditions()) {
+            guards += countNotGuards(child);
+        }
+        return guards;
+    }
+
+    private static double estimateCost(AttributeCondition condition) {
+        if (condition instanceof AttributeOperator) {
+            double cost = 0.0;
+            for (Attribute operand : ((AttributeOperator) condition).getOperands()) {
+                cost += estimateCost(operand);
+            }
+            return cost;
+        }
+        double cost = 0.0;
+        for (AttributeCondition child : condition.getSubconditions()) {
+            cost += estimateCost(child);
+        }
+        return cost;
+    }
+
+    private static double estimateCost(Attribute attribute) {
+        if (attribute instanceof AggregationAttribute) {
+            return 1;
+        } else if (attribute instanceof AttributeOperator) { // arithmetic operation
+            return estimateCost((AttributeCondition) attribute);
+        }
+        return 0.0;
+    }
+
+    private static class Batch {
+        private final List<Rule> rules = new ArrayList<>();
+        private final Set<String> types = new HashSet<>();
+        private double cost;
+
+        private int countNewTypes(Set<String> ruleTypes) {
+            int newTypes = 0;
+            for (String type : ruleTypes) {
+                if (!types.contains(type)) {
+                    newTypes++;
+                }
+            }
+            return newTypes;
+        }
+    }
+}
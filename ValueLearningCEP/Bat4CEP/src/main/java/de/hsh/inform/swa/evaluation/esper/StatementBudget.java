@@ -0,0 +1,49 @@
+package de.hsh.inform.swa.evaluation.esper;
+
+import java.util.Locale;
+/**
+ * Resources a statement may use during one replay of the event stream. A statement that exceeds its budget is cancelled by the replay driver
+ * and its rules get a penalty instead of their real performance (see EsperEvaluator).
+ *
+ * (1) active sub-expressions: partial matches of followed-by operators held by the statement, e.g. every A0=A -> B0=B holds one per open A0.
+ *     Esper only counts them on engines with a configured maximum of sub-expressions (see EsperEnginePool).
+ * (2) matches: matches delivered to the subscriber of the statement.
+ * There is no limit on time: all statements of a replay share the engine, so the time of a replay can not be attributed to a single statement.
+ *
+ * The budget is checked periodically during the replay, so a statement can exceed it slightly before it is cancelled. A limit of 0 disables the check.
+ * @author Software Architecture Research Group
+ *
+ */
+public final class StatementBudget {
+    public static final StatementBudget UNLIMITED = new StatementBudget(0, 0);
+
+    private final int maxSubexpressions;
+    private final long maxMatches;
+
+    public StatementBudget(int maxSubexpressions, long maxMatches) {
+        this.maxSubexpressions = maxSubexpressions;
+        this.maxMatches = maxMatches;
+    }
+
+    public int getMaxSubexpressions() {
+        return maxSubexpressions;
+    }
+
+    public long getMaxMatches() {
+        return maxMatches;
+    }
+
+    public boolean isUnlimited() {
+        return maxSubexpressions <= 0 && maxMatches <= 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "budget per statement: %s sub-expressions, %s matches",
+                limit(maxSubexpressions), limit(maxMatches));
+    }
+
+    private static String limit(long limit) {
+        return limit > 0 ? String.valueOf(limit) : "unlimited";
+    }
+}
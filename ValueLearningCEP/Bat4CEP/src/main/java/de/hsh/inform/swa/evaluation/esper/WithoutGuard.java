@@ -1,12 +1,10 @@
 package de.hsh.inform.swa.evaluation.esper;
 
-import java.util.IntSummaryStatistics;
-import java.util.List;
-import com.espertech.esper.event.map.MapEventBean;
+import com.espertech.esper.client.EventBean;
 import com.espertech.esper.pattern.MatchedEventMap;
 import com.espertech.esper.pattern.guard.EventGuardVisitor;
 import com.espertech.esper.pattern.guard.Guard;
-import de.hsh.inform.swa.cep.Event;
+import de.hsh.inform.swa.util.EventHandler;
 
 /**
  * Pattern guard that emulates the behavior of the "AND NOT" operator.
@@ -14,38 +12,35 @@ import de.hsh.inform.swa.cep.Event;
  * Emulation:
  * Let's take the expression [(A -> C) where cep:without(B)] as an example. When the inner clause matches, 
  * the pattern guard looks at all events between the matched A and C events and checks if there is a B event in between.
+ * The check is answered in constant time by the event type index of the event handler.
+ * The event handler is bound to the engine (see WithoutGuardFactory), so engines with different event streams can be used concurrently.
  * @author Software Architecture Research Group
  *
  */
 public class WithoutGuard implements Guard{
 
-	private String notType;
-	private static List<Event> events;
+	private final String notType;
+	private final EventHandler eh;
 
-	public WithoutGuard(Object negatedType) {
+	public WithoutGuard(Object negatedType, EventHandler eh) {
 		this.notType = (String) negatedType;
+		this.eh = eh;
 	}
 
 	@Override
 	public boolean inspect(MatchedEventMap matchEvent) {
 		if(matchEvent.getMatchingEvents().length==1) return true;
-		IntSummaryStatistics  stream = matchEvent.getMatchingEventsAsMap().values().stream().mapToInt(bean -> (Integer)((MapEventBean) bean).get("_lineNumber")).summaryStatistics();
-		
-		int max = stream.getMax();
-		int min = stream.getMin();
-		
-		for(int i=min+1; i<max;i++) {
-			if(WithoutGuard.events.get(i).getType().equals(notType)) {
-				return false;
-			}
+		int max = Integer.MIN_VALUE;
+		int min = Integer.MAX_VALUE;
+		for(Object bean : matchEvent.getMatchingEvents()) {
+			if(bean == null) continue; // tag is not part of the match
+			int lineNumber = (Integer)((EventBean) bean).get("_lineNumber");
+			max = Math.max(max, lineNumber);
+			min = Math.min(min, lineNumber);
 		}
-		return true;
+		return !eh.containsEventTypeBetween(notType, min, max);
 	}
 	
-	public static void initEvents(List<Event> events) {
-		WithoutGuard.events = events;
-	}
-
 	@Override
 	public void accept(EventGuardVisitor visitor) {}
 	
@@ -12,8 +12,11 @@ import com.espertech.esper.pattern.guard.Guard;
 import com.espertech.esper.pattern.guard.GuardFactorySupport;
 import com.espertech.esper.pattern.guard.GuardParameterException;
 import com.espertech.esper.pattern.guard.Quitable;
+
+import de.hsh.inform.swa.util.EventHandler;
 /**
  * Factory class that is called by the engine and instantiates the without pattern.
+ * The event stream of the guard is taken from the transient configuration of the engine (see EventHandlerUtils).
  * @author Software Architecture Research Group
  *
  */
@@ -30,7 +33,8 @@ public class WithoutGuardFactory extends GuardFactorySupport{
 	@Override
 	public Guard makeGuard(PatternAgentInstanceContext context, MatchedEventMap beginState, Quitable quitable,
 			EvalStateNodeNumber stateNodeId, Object guardState) {
-		return new WithoutGuard(negatedType);
+		EventHandler eh = (EventHandler) context.getStatementContext().getConfigSnapshot().getTransientConfiguration().get(EventHandlerUtils.EVENT_HANDLER);
+		return new WithoutGuard(negatedType, eh);
 	}
 
 }
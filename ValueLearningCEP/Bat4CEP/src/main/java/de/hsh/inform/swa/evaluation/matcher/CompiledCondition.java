@@ -0,0 +1,177 @@
+package de.hsh.inform.swa.evaluation.matcher;
+
+import de.hsh.inform.swa.cep.Attribute;
+import de.hsh.inform.swa.cep.AttributeCondition;
+import de.hsh.inform.swa.cep.AttributeOperator;
+import de.hsh.inform.swa.cep.ConstantAttribute;
+import de.hsh.inform.swa.cep.EventAttribute;
+import de.hsh.inform.swa.cep.operators.attributes.aggregation.AggregationAttribute;
+import de.hsh.inform.swa.cep.operators.attributes.arithmetic.AdditionOperator;
+import de.hsh.inform.swa.cep.operators.attributes.arithmetic.SubtractionOperator;
+import de.hsh.inform.swa.cep.operators.attributes.comparison.EqualToAttributeComparisonOperator;
+import de.hsh.inform.swa.cep.operators.attributes.comparison.GreaterThanAttributeComparisonOperator;
+import de.hsh.inform.swa.cep.operators.attributes.comparison.LessThanAttributeComparisonOperator;
+import de.hsh.inform.swa.cep.operators.attributes.logic.AndAttributeOperator;
+import de.hsh.inform.swa.cep.operators.attributes.logic.NotAttributeOperator;
+import de.hsh.inform.swa.cep.operators.attributes.logic.OrAttributeOperator;
+import de.hsh.inform.swa.util.AggregateIndex;
+/**
+ * Compiled form of an ACT that is evaluated against the line numbers of a match.
+ *
+ * Like the where clause in Esper, the ACT follows the three-valued logic of SQL:
+ * unknown values (e.g. the average of an empty window) are represented by NaN and comparisons with them are unknown.
+ * A match only passes the ACT if it evaluates to true.
+ * @author Software Architecture Research Group
+ *
+ */
+public final class CompiledCondition {
+    static final int TRUE = 1, FALSE = 0, UNKNOWN = -1;
+
+    private interface BooleanExpression {
+        int evaluate(int[] tagLines, int line);
+    }
+
+    interface ValueExpression {
+        double evaluate(int[] tagLines, int line);
+    }
+
+    private final EventColumns events;
+    private final PatternAutomaton pattern;
+    private final BooleanExpression root;
+    // comparison whose outcome is set from outside, see ThresholdSweep
+    private final AttributeOperator sweptComparison;
+    private int sweptOutcome;
+
+    public CompiledCondition(AttributeCondition act, PatternAutomaton pattern, EventColumns events) {
+        this(act, null, pattern, events);
+    }
+
+    CompiledCondition(AttributeCondition act, AttributeOperator sweptComparison, PatternAutomaton pattern, EventColumns events) {
+        this.events = events;
+        this.pattern = pattern;
+        this.sweptComparison = sweptComparison;
+        this.root = compile(act);
+    }
+
+    /**
+     * @param tagLines line numbers of the matched events, indexed by tag
+     * @param line line number of the last event of the match
+     * @return true if the match fulfills the ACT
+     */
+    public boolean test(int[] tagLines, int line) {
+        return root.evaluate(tagLines, line) == TRUE;
+    }
+
+    /**
+     * @param sweptOutcome outcome of the swept comparison (TRUE, FALSE or UNKNOWN)
+     * @return true if the match fulfills the ACT, given the outcome of the swept comparison
+     */
+    boolean test(int[] tagLines, int line, int sweptOutcome) {
+        this.sweptOutcome = sweptOutcome;
+        return root.evaluate(tagLines, line) == TRUE;
+    }
+
+    /**
+     * @return compiled operand of a comparison, evaluated against the line numbers of a match
+     */
+    ValueExpression compileOperand(Attribute attribute) {
+        return compile(attribute);
+    }
+
+    private BooleanExpression compile(AttributeCondition condition) {
+        if (condition == sweptComparison) {
+            return (tagLines, line) -> sweptOutcome;
+        }
+        if (condition instanceof AttributeOperator) {
+            Attribute[] operands = ((AttributeOperator) condition).getOperands();
+            ValueExpression a = compile(operands[0]), b = compile(operands[1]);
+            if (condition instanceof GreaterThanAttributeComparisonOperator) {
+                return (tagLines, line) -> compare(a.evaluate(tagLines, line), b.evaluate(tagLines, line)) > 0 ? TRUE : unknownOr(FALSE, a, b, tagLines, line);
+            } else if (condition instanceof LessThanAttributeComparisonOperator) {
+                return (tagLines, line) -> compare(a.evaluate(tagLines, line), b.evaluate(tagLines, line)) < 0 ? TRUE : unknownOr(FALSE, a, b, tagLines, line);
+            } else if (condition instanceof EqualToAttributeComparisonOperator) {
+                return (tagLines, line) -> compare(a.evaluate(tagLines, line), b.evaluate(tagLines, line)) == 0 ? TRUE : unknownOr(FALSE, a, b, tagLines, line);
+            }
+            throw new IllegalArgumentException("Unsupported attribute operator: " + condition);
+        }
+        AttributeCondition[] children = condition.getSubconditions();
+        if (condition instanceof NotAttributeOperator) {
+            BooleanExpression child = compile(children[0]);
+            return (tagLines, line) -> {
+                int value = child.evaluate(tagLines, line);
+                return value == UNKNOWN ? UNKNOWN : 1 - value;
+            };
+        }
+        BooleanExpression first = compile(children[0]), second = compile(children[1]);
+        if (condition instanceof AndAttributeOperator) {
+            return (tagLines, line) -> {
+                int a = first.evaluate(tagLines, line);
+                if (a == FALSE) return FALSE;
+                int b = second.evaluate(tagLines, line);
+                return b == FALSE ? FALSE : Math.min(a, b);
+            };
+        } else if (condition instanceof OrAttributeOperator) {
+            return (tagLines, line) -> {
+                int a = first.evaluate(tagLines, line);
+                if (a == TRUE) return TRUE;
+                int b = second.evaluate(tagLines, line);
+                return b == TRUE ? TRUE : Math.min(a, b);
+            };
+        }
+        throw new IllegalArgumentException("Unsupported attribute condition: " + condition);
+    }
+
+    // NaN never compares as smaller, greater or equal, so the caller only has to check for unknown values on the false branch
+    private static int compare(double a, double b) {
+        if (a < b) return -1;
+        if (a > b) return 1;
+        return a == b ? 0 : 2;
+    }
+
+    private static int unknownOr(int value, ValueExpression a, ValueExpression b, int[] tagLines, int line) {
+        return Double.isNaN(a.evaluate(tagLines, line)) || Double.isNaN(b.evaluate(tagLines, line)) ? UNKNOWN : value;
+    }
+
+    private ValueExpression compile(Attribute attribute) {
+        if (attribute instanceof ConstantAttribute) {
+            double value = ((ConstantAttribute) attribute).getValue();
+            return (tagLines, line) -> value;
+        } else if (attribute instanceof AdditionOperator || attribute instanceof SubtractionOperator) {
+            Attribute[] operands = ((AttributeOperator) attribute).getOperands();
+            ValueExpression a = compile(operands[0]), b = compile(operands[1]);
+            if (attribute instanceof AdditionOperator) {
+                return (tagLines, line) -> a.evaluate(tagLines, line) + b.evaluate(tagLines, line);
+            }
+            return (tagLines, line) -> a.evaluate(tagLines, line) - b.evaluate(tagLines, line);
+        } else if (attribute instanceof AggregationAttribute) {
+            return compileAggregation((AggregationAttribute) attribute);
+        } else if (attribute instanceof EventAttribute) {
+            EventAttribute eventAttribute = (EventAttribute) attribute;
+            int tag = pattern.getTag(eventAttribute.getAlias());
+            if (tag < 0) {
+                throw new IllegalArgumentException("Alias " + eventAttribute.getAlias() + " is not part of the ECT");
+            }
+            int attributeId = events.getAttributeId(eventAttribute.getAttributeName());
+            if (attributeId < 0) {
+                return (tagLines, line) -> Double.NaN;
+            }
+            return (tagLines, line) -> tagLines[tag] < 0 ? Double.NaN : events.getValue(attributeId, tagLines[tag]);
+        }
+        throw new IllegalArgumentException("Unsupported attribute: " + attribute);
+    }
+
+    /*
+     * Aggregations cover a time window of the aggregated event type, like the subquery (SELECT AVG(x) FROM A#time(10 sec)) in Esper.
+     * The window contains all events of this type that arrived up to the current line and are younger than the window length (see AggregateIndex).
+     */
+    private ValueExpression compileAggregation(AggregationAttribute aggregation) {
+        String type = aggregation.getTemplateEvent() != null ? aggregation.getTemplateEvent().getType() : String.valueOf(aggregation.getAlias().charAt(0));
+        AggregateIndex.Column column = events.getAggregateIndex().getColumn(type, aggregation.getAttributeName());
+        long windowMillis = aggregation.getWindow().getValue() * 1000;
+        String function = aggregation.getAggregationFunction();
+        if (column == null) {
+            return (tagLines, line) -> Double.NaN;
+        }
+        return (tagLines, line) -> column.aggregate(function, windowMillis, line);
+    }
+}
@@ -0,0 +1,101 @@
+package de.hsh.inform.swa.evaluation.matcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.hsh.inform.swa.cep.Event;
+import de.hsh.inform.swa.util.AggregateIndex;
+import de.hsh.inform.swa.util.EventHandler;
+/**
+ * Column-oriented copy of the event stream of an event handler.
+ * Event types and attribute names are mapped to dense ids, so that the pattern matcher can replay the stream
+ * without touching the attribute maps of the events.
+ * @author Software Architecture Research Group
+ *
+ */
+public final class EventColumns {
+    private final int size;
+    private final long[] timestamps;
+    private final int[] types;
+    private final double[][] values; // [attribute id][line], NaN if the event has no such attribute
+    private final Map<String, Integer> typeIds = new HashMap<>();
+    private final Map<String, Integer> attributeIds = new HashMap<>();
+    private final List<String> typeNames = new ArrayList<>();
+    private final EventHandler eh;
+
+    public EventColumns(EventHandler eh) {
+        List<Event> events = eh.getEventData();
+        this.eh = eh;
+        this.size = events.size();
+        this.timestamps = new long[size];
+        this.types = new int[size];
+        for (Event e : events) {
+            for (String attribute : e.getAttributeNames()) {
+                attributeIds.putIfAbsent(attribute, attributeIds.size());
+            }
+        }
+        this.values = new double[attributeIds.size()][size];
+        for (double[] column : values) {
+            Arrays.fill(column, Double.NaN);
+        }
+        for (int i = 0; i < size; i++) {
+            Event e = events.get(i);
+            timestamps[i] = e.getTimestamp();
+            types[i] = typeIds.computeIfAbsent(e.getType(), type -> {
+                typeNames.add(type);
+                return typeIds.size();
+            });
+            for (String attribute : e.getAttributeNames()) {
+                values[attributeIds.get(attribute)][i] = ((Number) e.getValue(attribute)).doubleValue();
+            }
+        }
+    }
+
+    /**
+     * @return id of the given event type or -1 if the type does not occur in the stream
+     */
+    public int getTypeId(String type) {
+        return typeIds.getOrDefault(type, -1);
+    }
+
+    /**
+     * @return id of the given attribute or -1 if no event of the stream has this attribute
+     */
+    public int getAttributeId(String attribute) {
+        return attributeIds.getOrDefault(attribute, -1);
+    }
+
+    public int getNumberOfTypes() {
+        return typeIds.size();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTimestamp(int line) {
+        return timestamps[line];
+    }
+
+    public int getType(int line) {
+        return types[line];
+    }
+
+    public double getValue(int attributeId, int line) {
+        return values[attributeId][line];
+    }
+
+    public AggregateIndex getAggregateIndex() {
+        return eh.getAggregateIndex();
+    }
+
+    /**
+     * @return true if an event of the given type occurs strictly between the lines from and to
+     */
+    public boolean containsTypeBetween(int typeId, int from, int to) {
+        return typeId >= 0 && eh.containsEventTypeBetween(typeNames.get(typeId), from, to);
+    }
+}
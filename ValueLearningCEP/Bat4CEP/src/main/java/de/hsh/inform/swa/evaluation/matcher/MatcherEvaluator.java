@@ -0,0 +1,125 @@
+package de.hsh.inform.swa.evaluation.matcher;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import de.hsh.inform.swa.cep.AttributeOperator;
+import de.hsh.inform.swa.cep.Rule;
+import de.hsh.inform.swa.evaluation.EvaluationMeasures;
+import de.hsh.inform.swa.evaluation.EvaluationResult;
+import de.hsh.inform.swa.evaluation.EvaluationSubscriber;
+import de.hsh.inform.swa.evaluation.RuleEvaluator;
+import de.hsh.inform.swa.util.EventHandler;
+import de.hsh.inform.swa.util.builder.AttributeConditionTreeBuilder;
+/**
+ * This class determines the performance of new rules without a CEP engine.
+ * Each rule is compiled into a pattern automaton and replayed directly over a column-oriented copy of the event stream.
+ * The matcher reproduces the semantics of the statements created by EsperUtils, so both evaluators lead to the same evaluation results.
+ * Rules are evaluated in parallel, each one by its own matcher.
+ * If there are fewer rules than threads (e.g. the validation of the best rule), each rule is replayed in time shards by several matchers (see ShardedReplay).
+ * A rule with a threshold is stopped as soon as its best case falls below the threshold.
+ * Prefixes of the event stream are evaluated by replaying the first lines only.
+ *
+ * @author Software Architecture Research Group
+ *
+ */
+public class MatcherEvaluator implements RuleEvaluator {
+    private final EventHandler eh;
+    private final EventColumns events;
+    private final ForkJoinPool pool;
+
+    public MatcherEvaluator(EventHandler eh, int threads) {
+        this.eh = eh;
+        this.events = new EventColumns(eh);
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    @Override
+    public Map<Rule, EvaluationResult> evaluateRule(List<Rule> rules) {
+        return evaluateRule(rules, Collections.emptyMap());
+    }
+
+    @Override
+    public Map<Rule, EvaluationResult> evaluateRule(List<Rule> rules, Map<Rule, Double> mustBeat) {
+        // like the first pattern instance in Esper, the first window starts at the time the rules are created
+        long engineTime = System.currentTimeMillis();
+        // same treatment as for Esper. The repair changes the hash code of a rule, so it has to be done before the rules are used as keys.
+        rules.forEach(rule -> AttributeConditionTreeBuilder.repairAggregationWindowsInAct(rule, eh));
+        Map<Rule, Double> thresholds = RuleEvaluator.getThresholds(rules, mustBeat);
+        int shards = getShards(rules, events.size());
+        try {
+            return pool.submit(() -> rules.stream().parallel().distinct()
+                    .collect(Collectors.toMap(rule -> rule, rule -> evaluate(rule, engineTime, thresholds.get(rule), events.size(), shards)))).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Evaluation of rules failed", e);
+        }
+    }
+
+    @Override
+    public Map<Rule, EvaluationResult> evaluatePrefix(List<Rule> rules, double fraction) {
+        long engineTime = System.currentTimeMillis();
+        rules.forEach(rule -> AttributeConditionTreeBuilder.repairAggregationWindowsInAct(rule, eh));
+        int lines = RuleEvaluator.getPrefixLength(fraction, events.size());
+        int shards = getShards(rules, lines);
+        try {
+            return pool.submit(() -> rules.stream().parallel().distinct()
+                    .collect(Collectors.toMap(rule -> rule, rule -> evaluate(rule, engineTime, null, lines, shards)))).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Evaluation of rules failed", e);
+        }
+    }
+
+    private int getShards(List<Rule> rules, int lines) {
+        return ShardedReplay.getShards((int) rules.stream().distinct().count(), lines, pool.getParallelism());
+    }
+
+    /**
+     * @param threshold F1 score the rule has to reach, null if the rule is evaluated completely
+     * @param lines number of replayed events
+     * @param shards number of time shards, the threshold is ignored if there is more than one
+     */
+    private EvaluationResult evaluate(Rule rule, long engineTime, Double threshold, int lines, int shards) {
+        PatternAutomaton pattern = new PatternAutomaton(rule.getEventConditionTreeRoot(), rule.getWindow(), events);
+        CompiledCondition condition = rule.getAttributeConditionTreeRoot() == null ? null
+                : new CompiledCondition(rule.getAttributeConditionTreeRoot(), pattern, events);
+        if (shards > 1) {
+            return EvaluationSubscriber.getResult(ShardedReplay.getHits(pattern, condition, events, lines, engineTime, shards), lines, eh);
+        }
+
+        // a hit is the line after the last matched event, see EvaluationSubscriber
+        BitSet hits = new BitSet(events.size() + 1);
+        EvaluationResult[] bestCase = new EvaluationResult[1];
+        boolean complete = new PatternMatcher(pattern, events).replay(0, lines, engineTime, (tagLines, line) -> {
+            if (condition == null || condition.test(tagLines, line)) {
+                hits.set(line + 1);
+            }
+        }, line -> {
+            if (threshold == null) {
+                return false;
+            }
+            bestCase[0] = EvaluationSubscriber.getBestCase(hits, line, eh);
+            return EvaluationMeasures.f1Score(bestCase[0]) < threshold;
+        });
+        return complete ? EvaluationSubscriber.getResult(hits, lines, eh) : bestCase[0];
+    }
+
+    @Override
+    public EvaluationResult optimizeConstant(Rule rule, AttributeOperator comparison) {
+        long engineTime = System.currentTimeMillis();
+        AttributeConditionTreeBuilder.repairAggregationWindowsInAct(rule, eh);
+        PatternAutomaton pattern = new PatternAutomaton(rule.getEventConditionTreeRoot(), rule.getWindow(), events);
+        ThresholdSweep sweep = new ThresholdSweep(rule.getAttributeConditionTreeRoot(), comparison, pattern, events);
+        new PatternMatcher(pattern, events).replay(0, events.size(), engineTime, sweep);
+        return sweep.apply(eh);
+    }
+
+    @Override
+    public void destroy() {
+        pool.shutdown();
+    }
+}
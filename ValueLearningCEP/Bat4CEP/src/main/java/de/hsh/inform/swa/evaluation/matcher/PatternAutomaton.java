@@ -0,0 +1,133 @@
+package de.hsh.inform.swa.evaluation.matcher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.hsh.inform.swa.cep.Event;
+import de.hsh.inform.swa.cep.EventCondition;
+import de.hsh.inform.swa.cep.operators.events.AndEventOperator;
+import de.hsh.inform.swa.cep.operators.events.NotEventOperator;
+import de.hsh.inform.swa.cep.operators.events.OrEventOperator;
+import de.hsh.inform.swa.cep.operators.events.SequenceEventOperator;
+import de.hsh.inform.swa.cep.windows.Window;
+/**
+ * Compiled form of an ECT and its window.
+ *
+ * The nodes of the ECT are stored in pre-order, so the subtree of node n covers the indices [n, n + subtreeSize[n]).
+ * Every event of the ECT gets a tag which corresponds to the alias Esper would assign to it (e.g. A0, B0, A1).
+ * The automaton itself is immutable and can be shared between threads, the replay state lives in PatternMatcher.
+ * @author Software Architecture Research Group
+ *
+ */
+public final class PatternAutomaton {
+    static final byte EVENT = 0, SEQUENCE = 1, AND = 2, OR = 3, WITHOUT = 4;
+    static final int MAX_TAGS = Long.SIZE;
+
+    final byte[] kind;
+    final int[] left, right, parent, subtreeSize, typeId, tag;
+    final long[] subtreeTags;
+    final int tagCount;
+    final long windowMillis; // Long.MAX_VALUE if the rule has no window
+
+    private final Map<String, Integer> aliases = new HashMap<>();
+    private final List<Node> nodes = new ArrayList<>();
+
+    public PatternAutomaton(EventCondition ect, Window window, EventColumns columns) {
+        compile(ect, -1, columns);
+        int n = nodes.size();
+        kind = new byte[n];
+        left = new int[n];
+        right = new int[n];
+        parent = new int[n];
+        subtreeSize = new int[n];
+        typeId = new int[n];
+        tag = new int[n];
+        subtreeTags = new long[n];
+        for (int i = n - 1; i >= 0; i--) {
+            Node node = nodes.get(i);
+            kind[i] = node.kind;
+            left[i] = node.left;
+            right[i] = node.right;
+            parent[i] = node.parent;
+            typeId[i] = node.typeId;
+            tag[i] = node.tag;
+            subtreeSize[i] = 1 + (node.left < 0 ? 0 : subtreeSize[node.left]) + (node.right < 0 ? 0 : subtreeSize[node.right]);
+            subtreeTags[i] = (node.tag < 0 ? 0L : 1L << node.tag) | (node.left < 0 ? 0L : subtreeTags[node.left]) | (node.right < 0 ? 0L : subtreeTags[node.right]);
+        }
+        tagCount = aliases.size();
+        nodes.clear();
+        // Esper interprets the window value as seconds, regardless of whether it is a time or a length window
+        windowMillis = window == null ? Long.MAX_VALUE : window.getValue() * 1000;
+    }
+
+    private int compile(EventCondition condition, int parentIndex, EventColumns columns) {
+        int index = nodes.size();
+        Node node = new Node(parentIndex);
+        nodes.add(node);
+        if (condition instanceof Event) {
+            Event event = (Event) condition;
+            node.kind = EVENT;
+            node.typeId = columns.getTypeId(event.getType());
+            node.tag = nextTag(event.getType());
+        } else if (condition instanceof NotEventOperator) {
+            node.kind = WITHOUT;
+            node.typeId = columns.getTypeId(((NotEventOperator) condition).getNegatedEvent().getType());
+            node.left = compile(condition.getSubconditions()[0], index, columns);
+        } else {
+            if (condition instanceof SequenceEventOperator) {
+                node.kind = SEQUENCE;
+            } else if (condition instanceof AndEventOperator) {
+                node.kind = AND;
+            } else if (condition instanceof OrEventOperator) {
+                node.kind = OR;
+            } else {
+                throw new IllegalArgumentException("Unsupported event condition: " + condition);
+            }
+            EventCondition[] operands = condition.getSubconditions();
+            node.left = compile(operands[0], index, columns);
+            node.right = compile(operands[1], index, columns);
+        }
+        return index;
+    }
+
+    // same alias assignment as Event.toStringWithAlias
+    private int nextTag(String type) {
+        int number = 0;
+        while (aliases.containsKey(type + number)) {
+            number++;
+        }
+        if (aliases.size() == MAX_TAGS) {
+            throw new IllegalArgumentException("ECT contains more than " + MAX_TAGS + " events");
+        }
+        int newTag = aliases.size();
+        aliases.put(type + number, newTag);
+        return newTag;
+    }
+
+    /**
+     * @return tag of the given alias or -1 if the ECT does not contain the alias
+     */
+    public int getTag(String alias) {
+        return aliases.getOrDefault(alias, -1);
+    }
+
+    public int getTagCount() {
+        return tagCount;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    private static class Node {
+        byte kind;
+        int left = -1, right = -1, typeId = -1, tag = -1;
+        final int parent;
+
+        Node(int parent) {
+            this.parent = parent;
+        }
+    }
+}
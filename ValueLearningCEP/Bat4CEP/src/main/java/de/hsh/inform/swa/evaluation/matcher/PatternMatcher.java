@@ -0,0 +1,265 @@
+package de.hsh.inform.swa.evaluation.matcher;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntPredicate;
+/**
+ * Replays an event stream through a compiled pattern and reports every match of "every(ECT) where timer:within(window)".
+ *
+ * The matcher mimics the behavior of the Esper pattern engine for this kind of pattern:
+ * (1) There is only one active instance of the ECT at a time. A new instance is started when the current one matches
+ *     or when its window expires. The window is measured from the start of the instance, not from its first event.
+ * (2) An event is only delivered to the events of the ECT that were active before the event arrived.
+ * (3) "cep:without" drops a match if the negated type occurs between the first and last matched event. The instance
+ *     then waits for its window to expire (see WithoutGuard).
+ * (4) The first instance is started at the engine time, i.e. the wall clock time when the replay is triggered.
+ *
+ * The state after a restart does not depend on the lines before, so two replays of the same lines that restart at the same point
+ * report the same matches from there on. ShardedReplay uses this to continue a replay until it is in sync with the replay of the next shard.
+ * @author Software Architecture Research Group
+ *
+ */
+public final class PatternMatcher {
+    private static final byte INACTIVE = 0, ACTIVE = 1, DONE = 2, BLOCKED = 3;
+    private static final int STOP_CHECK_INTERVAL = 1024; // lines between two checks whether the replay can stop
+
+    /**
+     * Callback for every match of the ECT.
+     */
+    public interface MatchListener {
+        /**
+         * @param tagLines line numbers of the matched events, indexed by tag. -1 if the tag is not part of the match.
+         * @param line line number of the last event of the match
+         */
+        void onMatch(int[] tagLines, int line);
+    }
+
+    private final PatternAutomaton pattern;
+    private final EventColumns events;
+
+    private final byte[] state;
+    private final long[] beginTags;
+    private final int[] tagLines;
+    private final int[] activeEvents, activeEventsPerType, dispatchBuffer;
+    private int activeEventCount;
+    private long boundTags;
+    private long instanceStart;
+    private int instance;
+    private BitSet restarts; // restarts of this matcher, null if they are not recorded
+    private BitSet syncPoints; // restarts of another replay, see resume()
+    private boolean synced;
+
+    public PatternMatcher(PatternAutomaton pattern, EventColumns events) {
+        this.pattern = pattern;
+        this.events = events;
+        int n = pattern.kind.length;
+        this.state = new byte[n];
+        this.beginTags = new long[n];
+        this.tagLines = new int[Math.max(1, pattern.tagCount)];
+        this.activeEvents = new int[n];
+        this.dispatchBuffer = new int[n];
+        this.activeEventsPerType = new int[events.getNumberOfTypes()];
+    }
+
+    /**
+     * Replays the lines [from, to) of the event stream.
+     * @param engineTime start time of the first ECT instance
+     * @param listener receives all matches
+     */
+    public void replay(int from, int to, long engineTime, MatchListener listener) {
+        replay(from, to, engineTime, listener, line -> false);
+    }
+
+    /**
+     * Replays the lines [from, to) of the event stream, unless the replay is no longer needed.
+     * @param engineTime start time of the first ECT instance
+     * @param listener receives all matches
+     * @param stop is asked periodically with the next line to replay, true stops the replay
+     * @return true if all lines were replayed
+     */
+    public boolean replay(int from, int to, long engineTime, MatchListener listener, IntPredicate stop) {
+        restart(engineTime);
+        return run(from, to, listener, stop) == to;
+    }
+
+    /**
+     * Records the restarts of the ECT instance from now on: 2 * line if the window expired at the line (before the line is dispatched),
+     * 2 * line + 1 if the instance matched at the line.
+     * @return the recorded restarts, filled by the following replays
+     */
+    public BitSet recordRestarts() {
+        restarts = new BitSet();
+        return restarts;
+    }
+
+    /**
+     * Continues the replay with the current state instead of a new instance, until the instance restarts at one of the given points.
+     * From there on, this matcher and the matcher that recorded the points are in the same state.
+     * @param syncPoints restarts of another replay of the lines, see recordRestarts()
+     * @param listener receives all matches before the sync point
+     * @return first line whose matches are reported by both replays, to if the replays did not get in sync
+     */
+    public int resume(int from, int to, MatchListener listener, BitSet syncPoints) {
+        this.syncPoints = syncPoints;
+        synced = false;
+        try {
+            return run(from, to, listener, line -> false);
+        } finally {
+            this.syncPoints = null;
+        }
+    }
+
+    /**
+     * @return line at which the replay stopped, to if all lines were replayed
+     */
+    private int run(int from, int to, MatchListener listener, IntPredicate stop) {
+        for (int line = from; line < to; line++) {
+            if ((line - from + 1) % STOP_CHECK_INTERVAL == 0 && stop.test(line)) {
+                return line;
+            }
+            long now = events.getTimestamp(line);
+            if (now - instanceStart >= pattern.windowMillis) {
+                restart(now); // timer:within expired
+                if (restarted(2 * line)) {
+                    return line;
+                }
+            }
+            int type = events.getType(line);
+            if (activeEventsPerType[type] > 0) {
+                dispatch(type, line, listener);
+                if (synced) {
+                    return line + 1;
+                }
+            }
+        }
+        return to;
+    }
+
+    /**
+     * @return true if the replay is in sync with the other replay
+     */
+    private boolean restarted(int point) {
+        if (restarts != null) restarts.set(point);
+        synced = syncPoints != null && syncPoints.get(point);
+        return synced;
+    }
+
+    private void restart(long time) {
+        for (int i = 0; i < activeEventCount; i++) {
+            int node = activeEvents[i];
+            if (pattern.typeId[node] >= 0) activeEventsPerType[pattern.typeId[node]]--;
+        }
+        activeEventCount = 0;
+        Arrays.fill(state, INACTIVE);
+        Arrays.fill(tagLines, -1);
+        boundTags = 0L;
+        instanceStart = time;
+        instance++;
+        start(0, 0L);
+    }
+
+    private void start(int node, long begin) {
+        state[node] = ACTIVE;
+        beginTags[node] = begin;
+        switch (pattern.kind[node]) {
+        case PatternAutomaton.EVENT:
+            activeEvents[activeEventCount++] = node;
+            if (pattern.typeId[node] >= 0) activeEventsPerType[pattern.typeId[node]]++;
+            break;
+        case PatternAutomaton.SEQUENCE:
+        case PatternAutomaton.WITHOUT:
+            start(pattern.left[node], begin);
+            break;
+        default: // AND, OR
+            start(pattern.left[node], begin);
+            start(pattern.right[node], begin);
+        }
+    }
+
+    private void dispatch(int type, int line, MatchListener listener) {
+        // snapshot: events of the ECT activated by this line must not see the line itself
+        int candidates = 0;
+        for (int i = 0; i < activeEventCount; i++) {
+            if (pattern.typeId[activeEvents[i]] == type) {
+                dispatchBuffer[candidates++] = activeEvents[i];
+            }
+        }
+        int currentInstance = instance;
+        for (int i = 0; i < candidates && currentInstance == instance; i++) {
+            int node = dispatchBuffer[i];
+            if (state[node] != ACTIVE) continue;
+            deactivate(node);
+            state[node] = DONE;
+            tagLines[pattern.tag[node]] = line;
+            boundTags |= 1L << pattern.tag[node];
+            evaluateTrue(pattern.parent[node], node, line, listener);
+        }
+    }
+
+    private void evaluateTrue(int node, int child, int line, MatchListener listener) {
+        if (node < 0) {
+            listener.onMatch(tagLines, line);
+            restart(events.getTimestamp(line));
+            restarted(2 * line + 1);
+            return;
+        }
+        switch (pattern.kind[node]) {
+        case PatternAutomaton.SEQUENCE:
+            if (child == pattern.left[node]) {
+                start(pattern.right[node], beginTags[node] | (boundTags & pattern.subtreeTags[child]));
+                return;
+            }
+            break;
+        case PatternAutomaton.AND:
+            int other = child == pattern.left[node] ? pattern.right[node] : pattern.left[node];
+            if (state[other] != DONE) return;
+            break;
+        case PatternAutomaton.OR:
+            quit(child == pattern.left[node] ? pattern.right[node] : pattern.left[node]);
+            break;
+        case PatternAutomaton.WITHOUT:
+            if (!inspectWithout(node)) {
+                state[node] = BLOCKED;
+                return;
+            }
+            break;
+        default:
+            throw new IllegalStateException("Event nodes have no children");
+        }
+        state[node] = DONE;
+        evaluateTrue(pattern.parent[node], node, line, listener);
+    }
+
+    private boolean inspectWithout(int node) {
+        if (pattern.tagCount == 1) return true;
+        long tags = beginTags[node] | (boundTags & pattern.subtreeTags[node]);
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (long remaining = tags; remaining != 0L; remaining &= remaining - 1) {
+            int line = tagLines[Long.numberOfTrailingZeros(remaining)];
+            min = Math.min(min, line);
+            max = Math.max(max, line);
+        }
+        return !events.containsTypeBetween(pattern.typeId[node], min, max);
+    }
+
+    private void quit(int node) {
+        int end = node + pattern.subtreeSize[node];
+        for (int i = node; i < end; i++) {
+            if (state[i] == ACTIVE && pattern.kind[i] == PatternAutomaton.EVENT) {
+                deactivate(i);
+            }
+            state[i] = INACTIVE;
+        }
+    }
+
+    private void deactivate(int node) {
+        for (int i = 0; i < activeEventCount; i++) {
+            if (activeEvents[i] == node) {
+                System.arraycopy(activeEvents, i + 1, activeEvents, i, activeEventCount - i - 1);
+                activeEventCount--;
+                if (pattern.typeId[node] >= 0) activeEventsPerType[pattern.typeId[node]]--;
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package de.hsh.inform.swa.evaluation.matcher;
+
+import java.util.BitSet;
+import java.util.stream.IntStream;
+
+import de.hsh.inform.swa.evaluation.matcher.PatternMatcher.MatchListener;
+/**
+ * Replays a pattern over the event stream in parallel time shards, with the same matches as a sequential replay.
+ *
+ * Whether an event starts a new ECT instance depends on all instances before, so shards that overlap by the window of the rule
+ * do not reproduce the sequential replay in general. Instead:
+ * (1) Each shard is replayed by its own matcher. All shards but the first one start with a new instance at their first line
+ *     and record the restarts of their instances.
+ * (2) In the order of the shards, the matcher of the previous shard continues into the next shard until it restarts at a point
+ *     where the matcher of the shard restarted as well (see PatternMatcher.resume()). Before this point, its matches replace the ones of the shard.
+ *     If the matchers do not get in sync, the previous matcher replays the whole shard and continues into the next one.
+ * The matchers get in sync within a few windows in most cases, so (2) replays only a small part of the event stream.
+ * @author Software Architecture Research Group
+ *
+ */
+final class ShardedReplay {
+    private static final int MIN_SHARD_LINES = 1 << 14; // shorter shards do not pay off
+
+    private ShardedReplay() {
+    }
+
+    /**
+     * @param rules number of rules that are replayed at the same time
+     * @param lines number of replayed lines
+     * @param threads number of threads that replay the rules
+     * @return number of shards per rule, 1 if the rules keep all threads busy or the event stream is too short
+     */
+    static int getShards(int rules, int lines, int threads) {
+        return Math.max(1, Math.min(threads / Math.max(1, rules), lines / MIN_SHARD_LINES));
+    }
+
+    /**
+     * Replays the lines [0, to) like PatternMatcher.replay(0, to, engineTime, listener). The shards are replayed by a parallel stream,
+     * i.e. in the fork join pool of the caller.
+     * @param condition ACT of the rule, null if there is none
+     * @return hits of the matches that fulfill the condition, i.e. the line after the last matched event (see EvaluationSubscriber)
+     */
+    static BitSet getHits(PatternAutomaton pattern, CompiledCondition condition, EventColumns events, int to, long engineTime, int shards) {
+        int[] bounds = new int[shards + 1];
+        for (int shard = 0; shard <= shards; shard++) {
+            bounds[shard] = (int) ((long) to * shard / shards);
+        }
+        Shard[] replays = IntStream.range(0, shards).parallel()
+                .mapToObj(shard -> new Shard(pattern, condition, events, bounds[shard], bounds[shard + 1], shard == 0 ? engineTime : events.getTimestamp(bounds[shard])))
+                .toArray(Shard[]::new);
+
+        BitSet hits = replays[0].hits;
+        PatternMatcher previous = replays[0].matcher;
+        for (int shard = 1; shard < shards; shard++) {
+            Shard replay = replays[shard];
+            int sync = previous.resume(bounds[shard], bounds[shard + 1], collectHits(condition, hits), replay.restarts);
+            if (sync < bounds[shard + 1]) { // the shard was replayed correctly from the sync point on
+                replay.hits.clear(0, sync + 1);
+                hits.or(replay.hits);
+                previous = replay.matcher;
+            }
+        }
+        return hits;
+    }
+
+    private static MatchListener collectHits(CompiledCondition condition, BitSet hits) {
+        return (tagLines, line) -> {
+            if (condition == null || condition.test(tagLines, line)) {
+                hits.set(line + 1);
+            }
+        };
+    }
+
+    // speculative replay of a shard
+    private static final class Shard {
+        private final PatternMatcher matcher;
+        private final BitSet restarts;
+        private final BitSet hits = new BitSet();
+
+        Shard(PatternAutomaton pattern, CompiledCondition condition, EventColumns events, int from, int to, long engineTime) {
+            this.matcher = new PatternMatcher(pattern, events);
+            this.restarts = matcher.recordRestarts();
+            matcher.replay(from, to, engineTime, collectHits(condition, hits));
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package de.hsh.inform.swa.evaluation.matcher;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.stream.DoubleStream;
+
+import de.hsh.inform.swa.cep.Attribute;
+import de.hsh.inform.swa.cep.AttributeCondition;
+import de.hsh.inform.swa.cep.AttributeOperator;
+import de.hsh.inform.swa.cep.ConstantAttribute;
+import de.hsh.inform.swa.cep.operators.attributes.comparison.EqualToAttributeComparisonOperator;
+import de.hsh.inform.swa.cep.operators.attributes.comparison.GreaterThanAttributeComparisonOperator;
+import de.hsh.inform.swa.cep.operators.attributes.comparison.LessThanAttributeComparisonOperator;
+import de.hsh.inform.swa.evaluation.EvaluationMeasures;
+import de.hsh.inform.swa.evaluation.EvaluationResult;
+import de.hsh.inform.swa.util.EventHandler;
+/**
+ * Finds the F1-optimal constant of a comparison in the ACT, e.g. c in A0.x > c, with a single pass over the matches of the ECT.
+ *
+ * For each match, the value of the other operand is recorded together with the outcome of the ACT if the comparison is true and if it is false.
+ * Afterwards, the sorted values divide the constants into intervals with the same outcome, all of them are scored by one sweep.
+ * Like the evaluators, a hit is the line after the last matched event and a line is hit if any of its matches passes the ACT.
+ * False positives of a reduced event stream are weighted like in EvaluationSubscriber.
+ * @author Software Architecture Research Group
+ *
+ */
+public final class ThresholdSweep implements PatternMatcher.MatchListener {
+    private static final int GREATER = 0, LESS = 1, EQUAL = 2; // operand compared to the constant
+    private static final byte PASSES_IF_TRUE = 1, PASSES_IF_FALSE = 2, PASSES = PASSES_IF_TRUE | PASSES_IF_FALSE;
+
+    private final AttributeOperator comparison;
+    private final int constantPosition;
+    private final int operator;
+    private final CompiledCondition condition;
+    private final CompiledCondition.ValueExpression operand;
+    private final int lineCount;
+
+    // matches that can pass the ACT for at least one constant
+    private int[] lines = new int[16];
+    private double[] values = new double[16];
+    private byte[] outcomes = new byte[16];
+    private int size;
+
+    /**
+     * @param comparison comparison of the ACT with a constant operand
+     */
+    public ThresholdSweep(AttributeCondition act, AttributeOperator comparison, PatternAutomaton pattern, EventColumns events) {
+        Attribute[] operands = comparison.getOperands();
+        this.comparison = comparison;
+        this.constantPosition = operands[1] instanceof ConstantAttribute ? 1 : 0;
+        if (!(operands[constantPosition] instanceof ConstantAttribute)) {
+            throw new IllegalArgumentException("Comparison without constant: " + comparison);
+        }
+        if (comparison instanceof GreaterThanAttributeComparisonOperator) {
+            this.operator = constantPosition == 1 ? GREATER : LESS;
+        } else if (comparison instanceof LessThanAttributeComparisonOperator) {
+            this.operator = constantPosition == 1 ? LESS : GREATER;
+        } else if (comparison instanceof EqualToAttributeComparisonOperator) {
+            this.operator = EQUAL;
+        } else {
+            throw new IllegalArgumentException("Unsupported comparison: " + comparison);
+        }
+        this.condition = new CompiledCondition(act, comparison, pattern, events);
+        this.operand = condition.compileOperand(operands[1 - constantPosition]);
+        this.lineCount = events.size();
+    }
+
+    @Override
+    public void onMatch(int[] tagLines, int line) {
+        double value = operand.evaluate(tagLines, line);
+        byte outcome;
+        if (Double.isNaN(value)) {
+            // the comparison is unknown for every constant
+            outcome = condition.test(tagLines, line, CompiledCondition.UNKNOWN) ? PASSES : 0;
+        } else {
+            outcome = (byte) ((condition.test(tagLines, line, CompiledCondition.TRUE) ? PASSES_IF_TRUE : 0)
+                    | (condition.test(tagLines, line, CompiledCondition.FALSE) ? PASSES_IF_FALSE : 0));
+        }
+        if (outcome == 0) {
+            return;
+        }
+        if (size == lines.length) {
+            lines = Arrays.copyOf(lines, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+            outcomes = Arrays.copyOf(outcomes, size * 2);
+        }
+        lines[size] = line;
+        values[size] = value;
+        outcomes[size] = outcome;
+        size++;
+    }
+
+    /**
+     * Sets the constant with the best F1 score. The current constant is kept if no other constant is better.
+     * @return performance of the rule with the chosen constant
+     */
+    public EvaluationResult apply(EventHandler eh) {
+        double current = ((ConstantAttribute) comparison.getOperands()[constantPosition]).getValue();
+        double[] constants = getCandidates(current);
+        int m = constants.length;
+
+        // constants passed by each hit line, as sorted ranges of candidate indices
+        int[] prefixEnd = new int[lineCount];
+        int[] suffixStart = new int[lineCount];
+        int[] excluded = new int[lineCount]; // EQUAL: the only constant the line is not hit with, -1 if none, m if the line is hit with every constant
+        Arrays.fill(suffixStart, m);
+        Arrays.fill(excluded, -1);
+        long[] points = new long[16]; // EQUAL: line and index of a constant the line is hit with
+        int pointCount = 0;
+        BitSet touched = new BitSet(lineCount);
+        for (int i = 0; i < size; i++) {
+            int line = lines[i];
+            touched.set(line);
+            if (outcomes[i] == PASSES) {
+                prefixEnd[line] = m;
+                excluded[line] = m;
+                continue;
+            }
+            boolean passesIfTrue = outcomes[i] == PASSES_IF_TRUE;
+            if (operator == EQUAL) {
+                int index = Arrays.binarySearch(constants, values[i]);
+                if (passesIfTrue) {
+                    if (pointCount == points.length) {
+                        points = Arrays.copyOf(points, pointCount * 2);
+                    }
+                    points[pointCount++] = ((long) line << 32) | index;
+                } else if (excluded[line] == -1 || excluded[line] == index) {
+                    excluded[line] = index;
+                } else {
+                    excluded[line] = m; // two different excluded constants
+                }
+                continue;
+            }
+            // GREATER: value > c holds for the candidates below the value, LESS: value < c for the candidates above it
+            int split = operator == GREATER ? lowerBound(constants, values[i]) : upperBound(constants, values[i]);
+            if (passesIfTrue == (operator == GREATER)) {
+                prefixEnd[line] = Math.max(prefixEnd[line], split);
+            } else {
+                suffixStart[line] = Math.min(suffixStart[line], split);
+            }
+        }
+        Arrays.sort(points, 0, pointCount);
+
+        // differences of true and false positives between neighbouring candidates, false positives weighted by the lines they represent
+        double[] truePositives = new double[m + 1], falsePositives = new double[m + 1];
+        BitSet complexEvents = eh.getComplexEventPositions();
+        int p = 0;
+        for (int line = touched.nextSetBit(0); line >= 0; line = touched.nextSetBit(line + 1)) {
+            int hit = line + 1;
+            double[] counts = complexEvents.get(hit) ? truePositives : hit < eh.getEventDataSize() ? falsePositives : null;
+            double weight = counts == falsePositives ? eh.getLineWeight(hit) : 1.0;
+            int firstPoint = p;
+            while (p < pointCount && (int) (points[p] >>> 32) == line) {
+                p++;
+            }
+            if (counts == null) {
+                continue;
+            }
+            if (operator != EQUAL) {
+                if (prefixEnd[line] >= suffixStart[line]) {
+                    add(counts, 0, m, weight);
+                } else {
+                    add(counts, 0, prefixEnd[line], weight);
+                    add(counts, suffixStart[line], m, weight);
+                }
+            } else if (excluded[line] == m) {
+                add(counts, 0, m, weight);
+            } else if (excluded[line] >= 0) {
+                boolean covered = false;
+                for (int i = firstPoint; i < p; i++) {
+                    covered |= (int) points[i] == excluded[line];
+                }
+                add(counts, 0, covered ? m : excluded[line], weight);
+                add(counts, covered ? m : excluded[line] + 1, m, weight);
+            } else {
+                for (int i = firstPoint; i < p; i++) {
+                    if (i == firstPoint || points[i] != points[i - 1]) {
+                        add(counts, (int) points[i], (int) points[i] + 1, weight);
+                    }
+                }
+            }
+        }
+
+        double tpSum = 0, fpSum = 0;
+        long representedLines = eh.getRepresentedLines(eh.getEventDataSize());
+        EvaluationResult[] results = new EvaluationResult[m];
+        for (int j = 0; j < m; j++) {
+            tpSum += truePositives[j];
+            fpSum += falsePositives[j];
+            long tp = Math.round(tpSum), fp = Math.round(fpSum);
+            long trueNegatives = (representedLines - eh.getComplexEventCount()) - fp;
+            long falseNegatives = eh.getComplexEventCount() - tp;
+            results[j] = new EvaluationResult((int) tp, (int) fp, trueNegatives, falseNegatives, eh.getComplexEventCount());
+        }
+        int best = Arrays.binarySearch(constants, current);
+        EvaluationResult bestResult = results[best];
+        for (int j = 0; j < m; j++) {
+            if (EvaluationMeasures.f1Score(results[j]) > EvaluationMeasures.f1Score(bestResult)) {
+                best = j;
+                bestResult = results[j];
+            }
+        }
+        comparison.setOperand(new ConstantAttribute(constants[best]), constantPosition);
+        return bestResult;
+    }
+
+    /*
+     * GREATER and LESS: one constant below, between and above the recorded values.
+     * EQUAL: the recorded values themselves. The current constant is always a candidate.
+     */
+    private double[] getCandidates(double current) {
+        double[] sorted = DoubleStream.concat(Arrays.stream(values, 0, size), DoubleStream.of(current)).filter(v -> !Double.isNaN(v))
+                .sorted().distinct().toArray();
+        if (operator == EQUAL) {
+            return sorted;
+        }
+        double[] candidates = new double[sorted.length * 2 + 1];
+        candidates[0] = Math.floor(sorted[0]) - 1;
+        for (int i = 0; i < sorted.length; i++) {
+            candidates[2 * i + 1] = sorted[i];
+            candidates[2 * i + 2] = i + 1 < sorted.length ? (sorted[i] + sorted[i + 1]) / 2 : Math.ceil(sorted[i]) + 1;
+        }
+        return candidates;
+    }
+
+    // number of candidates below the value
+    private static int lowerBound(double[] sorted, double value) {
+        int low = 0, high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < value) low = mid + 1; else high = mid;
+        }
+        return low;
+    }
+
+    // number of candidates below or equal to the value
+    private static int upperBound(double[] sorted, double value) {
+        int low = 0, high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] <= value) low = mid + 1; else high = mid;
+        }
+        return low;
+    }
+
+    private static void add(double[] counts, int from, int to, double weight) {
+        if (from < to) {
+            counts[from] += weight;
+            counts[to] -= weight;
+        }
+    }
+}
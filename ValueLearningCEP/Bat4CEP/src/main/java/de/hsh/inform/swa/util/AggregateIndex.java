@@ -0,0 +1,149 @@
+package de.hsh.inform.swa.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.hsh.inform.swa.cep.Event;
+/**
+ * Precomputed aggregates of the event stream, used for the aggregation functions of the ACT.
+ *
+ * An aggregation covers all events of one type that arrived up to a line and are younger than the window length at this line,
+ * like the subquery (SELECT AVG(x) FROM A#time(10 sec)) in Esper.
+ * Per type and attribute, the events are indexed by prefix sums (SUM, AVG) and sparse tables (MIN, MAX),
+ * so any aggregate is answered in O(log n) for the binary search of the window start.
+ * The index of an attribute is built on its first use.
+ * @author Software Architecture Research Group
+ *
+ */
+public final class AggregateIndex {
+    private final List<Event> events;
+    private final long[] timestamps;
+    private final Map<String, int[]> linesOfType = new HashMap<>();
+    private final Map<String, Map<String, Column>> columns = new ConcurrentHashMap<>();
+
+    AggregateIndex(List<Event> events) {
+        this.events = events;
+        this.timestamps = new long[events.size()];
+        Map<String, List<Integer>> lines = new HashMap<>();
+        for (int i = 0; i < events.size(); i++) {
+            timestamps[i] = events.get(i).getTimestamp();
+            lines.computeIfAbsent(events.get(i).getType(), type -> new ArrayList<>()).add(i);
+        }
+        lines.forEach((type, linesOfThisType) -> linesOfType.put(type, linesOfThisType.stream().mapToInt(Integer::intValue).toArray()));
+    }
+
+    /**
+     * @param function AVG, SUM, MIN or MAX
+     * @param windowMillis length of the window
+     * @param line last line of the window
+     * @return aggregate of the attribute over the events of the type in the window, NaN if the window contains no such event or an event without the attribute
+     */
+    public double aggregate(String function, String type, String attribute, long windowMillis, int line) {
+        Column column = getColumn(type, attribute);
+        return column == null ? Double.NaN : column.aggregate(function, windowMillis, line);
+    }
+
+    /**
+     * @return index of the attribute of an event type, null if the type does not occur in the event stream
+     */
+    public Column getColumn(String type, String attribute) {
+        int[] lines = linesOfType.get(type);
+        if (lines == null) {
+            return null;
+        }
+        return columns.computeIfAbsent(type, t -> new ConcurrentHashMap<>()).computeIfAbsent(attribute, a -> new Column(lines, a));
+    }
+
+    /**
+     * Index of one attribute of one event type.
+     */
+    public final class Column {
+        private final int[] lines; // lines of the events of the type
+        private final long[] eventTimestamps;
+        private final double[] prefixSums; // prefixSums[i]: sum of the first i values
+        private final int[] prefixUnknowns; // prefixUnknowns[i]: number of events without the attribute among the first i events
+        private final double[][] minima, maxima; // sparse tables: [k][i] covers the values [i, i + 2^k)
+
+        private Column(int[] lines, String attribute) {
+            int n = lines.length;
+            this.lines = lines;
+            this.eventTimestamps = new long[n];
+            this.prefixSums = new double[n + 1];
+            this.prefixUnknowns = new int[n + 1];
+            double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                eventTimestamps[i] = timestamps[lines[i]];
+                Object value = events.get(lines[i]).getValue(attribute);
+                values[i] = value == null ? Double.NaN : ((Number) value).doubleValue();
+                prefixSums[i + 1] = prefixSums[i] + (value == null ? 0.0 : values[i]);
+                prefixUnknowns[i + 1] = prefixUnknowns[i] + (value == null ? 1 : 0);
+            }
+            int levels = 32 - Integer.numberOfLeadingZeros(Math.max(n, 1));
+            this.minima = new double[levels][];
+            this.maxima = new double[levels][];
+            minima[0] = values;
+            maxima[0] = values;
+            for (int k = 1; k < levels; k++) {
+                int half = 1 << (k - 1);
+                minima[k] = new double[n - (1 << k) + 1];
+                maxima[k] = new double[n - (1 << k) + 1];
+                for (int i = 0; i < minima[k].length; i++) {
+                    minima[k][i] = Math.min(minima[k - 1][i], minima[k - 1][i + half]);
+                    maxima[k][i] = Math.max(maxima[k - 1][i], maxima[k - 1][i + half]);
+                }
+            }
+        }
+
+        /**
+         * @see AggregateIndex#aggregate(String, String, String, long, int)
+         */
+        public double aggregate(String function, long windowMillis, int line) {
+            int to = upperBound(line); // events [from, to) are in the window
+            int from = firstYoungerThan(timestamps[line] - windowMillis, to);
+            if (from == to || prefixUnknowns[to] != prefixUnknowns[from]) {
+                return Double.NaN;
+            }
+            switch (function) {
+            case "SUM":
+                return prefixSums[to] - prefixSums[from];
+            case "AVG":
+                return (prefixSums[to] - prefixSums[from]) / (to - from);
+            case "MIN":
+                return range(minima, from, to, true);
+            case "MAX":
+                return range(maxima, from, to, false);
+            default:
+                throw new IllegalArgumentException("Unknown aggregation function: " + function);
+            }
+        }
+
+        private double range(double[][] table, int from, int to, boolean minimum) {
+            int k = 31 - Integer.numberOfLeadingZeros(to - from);
+            double a = table[k][from], b = table[k][to - (1 << k)];
+            return minimum ? Math.min(a, b) : Math.max(a, b);
+        }
+
+        // number of events up to the line
+        private int upperBound(int line) {
+            int low = 0, high = lines.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (lines[mid] <= line) low = mid + 1; else high = mid;
+            }
+            return low;
+        }
+
+        // first of the events [0, to) that is younger than the window start, the timestamps are in ascending order
+        private int firstYoungerThan(long windowStart, int to) {
+            int low = 0, high = to;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (eventTimestamps[mid] <= windowStart) low = mid + 1; else high = mid;
+            }
+            return low;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package de.hsh.inform.swa.util;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -22,12 +24,25 @@ public final class EventHandler {
     private final AtomicReference<Object> withoutComplexEvent = new AtomicReference<Object>();
     private final AtomicReference<Object> eventTypes = new AtomicReference<Object>();
     private final AtomicReference<Object> complexEventCount = new AtomicReference<Object>();
+    private final AtomicReference<Object> complexEventPositions = new AtomicReference<Object>();
+    private final AtomicReference<Object> eventTypeCounts = new AtomicReference<Object>();
+    private final AtomicReference<Object> eventProperties = new AtomicReference<Object>();
+    private final AtomicReference<Object> eventPayloads = new AtomicReference<Object>();
+    private final AtomicReference<Object> aggregateIndex = new AtomicReference<Object>();
 
     private Event complexEvent;
+    private final BitSet sampledLines; // lines of the sampled segments of a reduced event stream, see StreamReduction
+    private final double sampleWeight; // lines of the original event stream represented by a sampled line
 
     public EventHandler(List<Event> eventsWithComplexEvent, Event complexEvent) {
+        this(eventsWithComplexEvent, complexEvent, new BitSet(), 1.0);
+    }
+
+    EventHandler(List<Event> eventsWithComplexEvent, Event complexEvent, BitSet sampledLines, double sampleWeight) {
         this.eventData.addAll(eventsWithComplexEvent);
         this.complexEvent = complexEvent;
+        this.sampledLines = sampledLines;
+        this.sampleWeight = sampleWeight;
     }
 
 	private Map<String, TemplateEvent> getTemplateEventsInternal() {
@@ -72,6 +87,65 @@ public final class EventHandler {
         return indices.stream().mapToInt(i -> i).toArray();
     }
 
+    private BitSet getComplexEventPositionsInternal() {
+        BitSet positions = new BitSet(eventData.size());
+        for (int i = 0; i < eventData.size(); i++) {
+            if (eventData.get(i).getType().equals(complexEvent.getType())) {
+                positions.set(i);
+            }
+        }
+        return positions;
+    }
+
+    /*
+     * prefix counts per event type: counts[i] is the number of events of this type at the positions [0, i)
+     */
+    private Map<String, int[]> getEventTypeCountsInternal() {
+        Map<String, int[]> eventTypeCounts = new HashMap<>();
+        for (int i = 0; i < eventData.size(); i++) {
+            eventTypeCounts.computeIfAbsent(eventData.get(i).getType(), type -> new int[eventData.size() + 1])[i + 1] = 1;
+        }
+        for (int[] counts : eventTypeCounts.values()) {
+            for (int i = 1; i < counts.length; i++) {
+                counts[i] += counts[i - 1];
+            }
+        }
+        return eventTypeCounts;
+    }
+
+    /*
+     * properties of each event type in the CEP engine: all attributes a rule can reference (sorted by name) and the line number
+     */
+    private Map<String, String[]> getEventPropertiesInternal() {
+        Map<String, String[]> eventProperties = new HashMap<>();
+        getTemplateEvents().forEach((type, template) -> {
+            List<String> properties = new ArrayList<>(template.getAttributes());
+            Collections.sort(properties);
+            properties.add("_lineNumber");
+            eventProperties.put(type, properties.toArray(new String[properties.size()]));
+        });
+        eventProperties.put(complexEvent.getType(), new String[0]);
+        return eventProperties;
+    }
+
+    private Object[][] getEventPayloadsInternal() {
+        Object[][] payloads = new Object[eventData.size()][];
+        for (int i = 0; i < eventData.size(); i++) {
+            Event event = eventData.get(i);
+            String[] properties = getEventProperties().get(event.getType());
+            Object[] payload = new Object[properties.length];
+            for (int j = 0; j < properties.length; j++) {
+                payload[j] = "_lineNumber".equals(properties[j]) ? event.getNumber() : event.getValue(properties[j]);
+            }
+            payloads[i] = payload;
+        }
+        return payloads;
+    }
+
+    private AggregateIndex getAggregateIndexInternal() {
+        return new AggregateIndex(eventData);
+    }
+
     public List<Event> getEventData() {
         return eventData;
     }
@@ -87,6 +161,56 @@ public final class EventHandler {
     public TemplateEvent getTemplateOfEvent(Event event) {        
         return getTemplateEvents().get(event.getType());
     }
+
+    /**
+     * @return true if this event stream is a reduction of a longer one, see StreamReduction
+     */
+    public boolean isReduced() {
+        return !sampledLines.isEmpty();
+    }
+
+    /**
+     * @return lines of the original event stream represented by a line of a sampled segment, 1 if the event stream is not reduced
+     */
+    public double getSampleWeight() {
+        return sampleWeight;
+    }
+
+    /**
+     * @return estimated number of lines of the original event stream represented by the first lines of this event stream
+     */
+    public long getRepresentedLines(int lines) {
+        return lines + Math.round((sampleWeight - 1) * sampledLines.get(0, lines).cardinality());
+    }
+
+    /**
+     * @param lines lines of this event stream, e.g. the false positives of a rule
+     * @return estimated number of the corresponding lines of the original event stream
+     */
+    public long getRepresentedCount(BitSet lines) {
+        if (sampledLines.isEmpty()) {
+            return lines.cardinality();
+        }
+        BitSet sampled = (BitSet) lines.clone();
+        sampled.and(sampledLines);
+        return lines.cardinality() + Math.round((sampleWeight - 1) * sampled.cardinality());
+    }
+
+    /**
+     * @return number of lines of the original event stream represented by the line
+     */
+    public double getLineWeight(int line) {
+        return sampledLines.get(line) ? sampleWeight : 1.0;
+    }
+
+    /**
+     * @return true if an event of the given type occurs strictly between the positions from and to of the event stream
+     */
+    public boolean containsEventTypeBetween(String type, int from, int to) {
+        if (to - from < 2) return false;
+        int[] counts = getEventTypeCounts().get(type);
+        return counts != null && counts[to] - counts[from + 1] > 0;
+    }
     
 	public int[] getIndicesOfComplexEvent() { //lazy delegation method
 		java.lang.Object value = this.indicesOfComplexEvent.get();
@@ -162,4 +286,88 @@ public final class EventHandler {
 	    }
 	    return (long)(value == this.complexEventCount ? null : value);
 	}
+	/**
+	 * @return positions of all complex events in the event stream. Must not be modified.
+	 */
+	public BitSet getComplexEventPositions() { //lazy delegation method
+		java.lang.Object value = this.complexEventPositions.get();
+	    if (value == null) {
+	      synchronized(this.complexEventPositions) {
+	        value = this.complexEventPositions.get();
+	        if (value == null) {
+	          final BitSet actualValue = getComplexEventPositionsInternal();
+	          value = actualValue == null ? this.complexEventPositions : actualValue;
+	          this.complexEventPositions.set(value);
+	        }
+	      }
+	    }
+	    return (BitSet)(value == this.complexEventPositions ? null : value);
+	}
+	@SuppressWarnings("unchecked")
+	private Map<String, int[]> getEventTypeCounts() { //lazy delegation method
+		java.lang.Object value = this.eventTypeCounts.get();
+	    if (value == null) {
+	      synchronized(this.eventTypeCounts) {
+	        value = this.eventTypeCounts.get();
+	        if (value == null) {
+	          final Map<String, int[]> actualValue = getEventTypeCountsInternal();
+	          value = actualValue == null ? this.eventTypeCounts : actualValue;
+	          this.eventTypeCounts.set(value);
+	        }
+	      }
+	    }
+	    return (Map<String, int[]>)(value == this.eventTypeCounts ? null : value);
+	}
+	/**
+	 * @return names of the properties of each event type, in the order of the event payloads. Must not be modified.
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, String[]> getEventProperties() { //lazy delegation method
+		java.lang.Object value = this.eventProperties.get();
+	    if (value == null) {
+	      synchronized(this.eventProperties) {
+	        value = this.eventProperties.get();
+	        if (value == null) {
+	          final Map<String, String[]> actualValue = getEventPropertiesInternal();
+	          value = actualValue == null ? this.eventProperties : actualValue;
+	          this.eventProperties.set(value);
+	        }
+	      }
+	    }
+	    return (Map<String, String[]>)(value == this.eventProperties ? null : value);
+	}
+	/**
+	 * @return property values of each event of the event stream as they are sent to the CEP engine. Must not be modified.
+	 */
+	public Object[][] getEventPayloads() { //lazy delegation method
+		java.lang.Object value = this.eventPayloads.get();
+	    if (value == null) {
+	      synchronized(this.eventPayloads) {
+	        value = this.eventPayloads.get();
+	        if (value == null) {
+	          final Object[][] actualValue = getEventPayloadsInternal();
+	          value = actualValue == null ? this.eventPayloads : actualValue;
+	          this.eventPayloads.set(value);
+	        }
+	      }
+	    }
+	    return (Object[][])(value == this.eventPayloads ? null : value);
+	}
+	/**
+	 * @return aggregates of the attributes of each event type over time windows, see AggregateIndex
+	 */
+	public AggregateIndex getAggregateIndex() { //lazy delegation method
+		java.lang.Object value = this.aggregateIndex.get();
+	    if (value == null) {
+	      synchronized(this.aggregateIndex) {
+	        value = this.aggregateIndex.get();
+	        if (value == null) {
+	          final AggregateIndex actualValue = getAggregateIndexInternal();
+	          value = actualValue == null ? this.aggregateIndex : actualValue;
+	          this.aggregateIndex.set(value);
+	        }
+	      }
+	    }
+	    return (AggregateIndex)(value == this.aggregateIndex ? null : value);
+	}
 }
@@ -1,6 +1,8 @@
 package de.hsh.inform.swa.util;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Map;
 
 import de.hsh.inform.swa.cep.Rule;
@@ -14,11 +16,45 @@ import de.hsh.inform.swa.evaluation.RuleWithFitness;
  */
 public class FitnessHelper {
 	public static void measureFitness(RuleEvaluator evaluator, RuleWithFitness... population) {
-        Map<Rule, EvaluationResult> s = evaluator.evaluateRule(Arrays.asList(population));
-        s.forEach((x, y) -> {
-            if (x instanceof RuleWithFitness) {
-                ((RuleWithFitness) x).setCondition(y);
+		measureFitness(evaluator, Collections.emptyMap(), population);
+	}
+
+	/**
+	 * @param mustBeat F1 score each rule has to reach, see RuleEvaluator. Rules that can not reach it may get a dominated result.
+	 */
+	public static void measureFitness(RuleEvaluator evaluator, Map<Rule, Double> mustBeat, RuleWithFitness... population) {
+        setConditions(population, evaluator.evaluateRule(Arrays.asList(population), mustBeat));
+	}
+
+	/**
+	 * Racing evaluation: the rules are evaluated on growing prefixes of the event stream and only the best of each round advance (see RacingSchedule).
+	 * The finalists are evaluated on the whole event stream, all other rules keep the approximate result of the last prefix they were evaluated on.
+	 * @param racing schedule of the prefixes, null evaluates all rules on the whole event stream
+	 * @param mustBeat F1 score each finalist has to reach, see RuleEvaluator
+	 */
+	public static void measureFitness(RuleEvaluator evaluator, RacingSchedule racing, Map<Rule, Double> mustBeat, RuleWithFitness... population) {
+		RuleWithFitness[] survivors = population;
+		if (racing != null) {
+			for (double fraction : racing.getPrefixFractions()) {
+				if (survivors.length <= racing.getMinimumSurvivors()) {
+					break;
+				}
+				setConditions(survivors, evaluator.evaluatePrefix(Arrays.asList(survivors), fraction));
+				survivors = Arrays.stream(survivors).sorted(Comparator.comparingDouble(RuleWithFitness::getTotalFitness).reversed())
+						.limit(racing.getSurvivors(survivors.length)).toArray(RuleWithFitness[]::new);
+			}
+		}
+		measureFitness(evaluator, mustBeat, survivors);
+	}
+
+	private static void setConditions(RuleWithFitness[] population, Map<Rule, EvaluationResult> s) {
+        // equal rules are evaluated once and share the result. 
+        // All results are looked up first, because a new fitness changes the string representation and thus the equality of a rule.
+        EvaluationResult[] results = Arrays.stream(population).map(s::get).toArray(EvaluationResult[]::new);
+        for (int i = 0; i < population.length; i++) {
+            if (results[i] != null) {
+                population[i].setCondition(results[i]);
             }
-        });
+        }
     }
 }
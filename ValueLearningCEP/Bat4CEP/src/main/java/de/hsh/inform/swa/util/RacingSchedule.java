@@ -0,0 +1,74 @@
+package de.hsh.inform.swa.util;
+
+import java.util.Arrays;
+import java.util.Locale;
+/**
+ * Schedule of a racing evaluation (see FitnessHelper): all rules are evaluated on the shortest prefix of the event stream,
+ * only the best of them advance to the next, longer prefix, and only the finalists are evaluated on the whole event stream.
+ * Weak rules are thus discarded after a small part of the events, at the risk of discarding a rule that is weak at the beginning of the event stream only.
+ * @author Software Architecture Research Group
+ *
+ */
+public final class RacingSchedule {
+    private final double[] prefixFractions;
+    private final double survivorFraction;
+    private final int minimumSurvivors;
+
+    /**
+     * @param survivorFraction share of the rules of a round that advance to the next round
+     * @param minimumSurvivors rounds are skipped as soon as no more than this number of rules is left
+     * @param prefixFractions share of the events replayed in each round before the whole event stream, in ascending order
+     */
+    public RacingSchedule(double survivorFraction, int minimumSurvivors, double... prefixFractions) {
+        if (survivorFraction <= 0 || survivorFraction > 1) {
+            throw new IllegalArgumentException("Survivor fraction out of range: " + survivorFraction);
+        }
+        for (int i = 0; i < prefixFractions.length; i++) {
+            if (prefixFractions[i] <= 0 || prefixFractions[i] >= 1 || (i > 0 && prefixFractions[i] <= prefixFractions[i - 1])) {
+                throw new IllegalArgumentException("Prefix fractions must be ascending and below 1: " + Arrays.toString(prefixFractions));
+            }
+        }
+        this.prefixFractions = prefixFractions.clone();
+        this.survivorFraction = survivorFraction;
+        this.minimumSurvivors = Math.max(1, minimumSurvivors);
+    }
+
+    /**
+     * Successive halving with the given factor: each round replays factor times more events than the round before and keeps 1/factor of the rules,
+     * e.g. 3 rounds with factor 4 replay 1/16, 1/4 and all of the events.
+     * @param rounds number of rounds including the last one on the whole event stream
+     * @param minimumSurvivors see RacingSchedule(double, int, double...)
+     */
+    public static RacingSchedule successiveHalving(int rounds, int factor, int minimumSurvivors) {
+        double[] prefixFractions = new double[rounds - 1];
+        for (int i = 0; i < prefixFractions.length; i++) {
+            prefixFractions[i] = Math.pow(factor, i - prefixFractions.length);
+        }
+        return new RacingSchedule(1.0 / factor, minimumSurvivors, prefixFractions);
+    }
+
+    public double[] getPrefixFractions() {
+        return prefixFractions.clone();
+    }
+
+    public double getSurvivorFraction() {
+        return survivorFraction;
+    }
+
+    public int getMinimumSurvivors() {
+        return minimumSurvivors;
+    }
+
+    /**
+     * @return number of rules that advance to the next round
+     */
+    public int getSurvivors(int rules) {
+        return Math.min(rules, Math.max(minimumSurvivors, (int) Math.ceil(rules * survivorFraction)));
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "racing over prefixes %s of the event stream, %.2f of the rules advance (at least %d)",
+                Arrays.toString(prefixFractions), survivorFraction, minimumSurvivors);
+    }
+}
@@ -0,0 +1,150 @@
+package de.hsh.inform.swa.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import de.hsh.inform.swa.cep.Event;
+/**
+ * Reduces the event stream of the training to the parts around the complex events and a sample of the rest.
+ * Complex events are rare, so most of the event stream can only produce false positives.
+ *
+ * (1) positive segments: all events within the horizon before a complex event, i.e. all events a match leading to the complex event can contain,
+ *     if the window of the rule does not exceed the horizon. Whether a pattern with every starts a new instance depends on the instances before,
+ *     so the events of WARMUP_HORIZONS more horizons are kept. In most cases, the pattern is then in the same state as in the original event stream.
+ * (2) negative segments: the rest of the event stream is cut into segments of SEGMENT_HORIZONS horizons,
+ *     a systematic sample of them is kept, so the sample is spread evenly over the event stream.
+ * (3) the kept segments are stitched together in their original order. Between two segments, the clock advances by more than the horizon,
+ *     so a match can not span two segments.
+ *
+ * A line of a negative segment stands for all left out lines (see EventHandler.getSampleWeight()),
+ * the false positives and true negatives of a rule on the reduced event stream are estimates for the original event stream (see EvaluationSubscriber).
+ * Matches that start before a segment are lost, so the estimates are slightly too low for false positives.
+ * @author Software Architecture Research Group
+ *
+ */
+public final class StreamReduction {
+    private static final int SEGMENT_HORIZONS = 4; // length of a negative segment, in horizons
+    private static final int WARMUP_HORIZONS = 1; // events kept before the horizon of a complex event, in horizons
+
+    private final long horizonMillis;
+    private final double negativeFraction;
+    private final long seed;
+
+    /**
+     * @param horizonMillis events kept before each complex event, at least the longest window of a rule
+     * @param negativeFraction share of the negative segments that is kept
+     * @param seed seed of the sample
+     */
+    public StreamReduction(long horizonMillis, double negativeFraction, long seed) {
+        if (horizonMillis <= 0 || negativeFraction <= 0 || negativeFraction > 1) {
+            throw new IllegalArgumentException("Invalid reduction: horizon " + horizonMillis + " ms, negative fraction " + negativeFraction);
+        }
+        this.horizonMillis = horizonMillis;
+        this.negativeFraction = negativeFraction;
+        this.seed = seed;
+    }
+
+    public long getHorizonMillis() {
+        return horizonMillis;
+    }
+
+    public double getNegativeFraction() {
+        return negativeFraction;
+    }
+
+    /**
+     * @return event handler of the reduced event stream. The events are copies with new line numbers and timestamps.
+     */
+    public EventHandler reduce(EventHandler eh) {
+        List<Event> events = eh.getEventData();
+        BitSet positive = getPositiveLines(eh);
+        BitSet negative = getNegativeSample(events, positive);
+
+        // stitch the kept lines, the clock jumps over the horizon between two segments
+        List<Event> reduced = new ArrayList<>();
+        BitSet sampledLines = new BitSet();
+        long offset = 0;
+        int previous = -1;
+        for (int line = 0; line < events.size(); line++) {
+            boolean sampled = negative.get(line);
+            if (!sampled && !positive.get(line)) {
+                continue;
+            }
+            Event event = events.get(line);
+            if (previous >= 0 && (previous != line - 1 || positive.get(previous) != positive.get(line))) {
+                offset += Math.max(0, horizonMillis + 1000 - (event.getTimestamp() - events.get(previous).getTimestamp()));
+            }
+            Map<String, Object> attributes = event.getAttributes();
+            attributes.remove("_lineNumber");
+            Event copy = new Event(event.getType(), new Date(event.getTimestamp() + offset), attributes);
+            copy.setNumber(reduced.size());
+            if (sampled) {
+                sampledLines.set(reduced.size());
+            }
+            reduced.add(copy);
+            previous = line;
+        }
+        int negativeLines = events.size() - positive.cardinality();
+        double sampleWeight = negative.isEmpty() ? 1.0 : (double) negativeLines / negative.cardinality();
+        return new EventHandler(reduced, eh.getComplexEvent(), sampledLines, sampleWeight);
+    }
+
+    /*
+     * A complex event is hit by matches that end at the line before it, so the horizon is counted from that line.
+     * The line before the horizon is kept as well, so a match of the previous segment can not hit the first line of a positive segment.
+     */
+    private BitSet getPositiveLines(EventHandler eh) {
+        List<Event> events = eh.getEventData();
+        BitSet complexEvents = eh.getComplexEventPositions();
+        BitSet positive = new BitSet(events.size());
+        int from = 0; // the horizons start in ascending order
+        for (int line = complexEvents.nextSetBit(0); line >= 0; line = complexEvents.nextSetBit(line + 1)) {
+            long start = events.get(Math.max(0, line - 1)).getTimestamp() - (1 + WARMUP_HORIZONS) * horizonMillis;
+            while (from < line && events.get(from).getTimestamp() < start) {
+                from++;
+            }
+            positive.set(Math.max(0, from - 1), line + 1);
+        }
+        return positive;
+    }
+
+    /*
+     * Systematic sample of the negative segments with a random start, at least one segment is kept.
+     */
+    private BitSet getNegativeSample(List<Event> events, BitSet positive) {
+        List<int[]> segments = new ArrayList<>();
+        for (int from = positive.nextClearBit(0); from < events.size(); from = positive.nextClearBit(from)) {
+            int end = positive.nextSetBit(from) < 0 ? events.size() : positive.nextSetBit(from);
+            long start = events.get(from).getTimestamp();
+            int to = from;
+            while (to < end && events.get(to).getTimestamp() - start < SEGMENT_HORIZONS * horizonMillis) {
+                to++;
+            }
+            segments.add(new int[] { from, to });
+            from = to;
+        }
+        BitSet sample = new BitSet(events.size());
+        Random random = new Random(seed);
+        double u = random.nextDouble();
+        for (int i = 0; i < segments.size(); i++) {
+            if (Math.floor((i + 1) * negativeFraction + u) > Math.floor(i * negativeFraction + u)) {
+                sample.set(segments.get(i)[0], segments.get(i)[1]);
+            }
+        }
+        if (sample.isEmpty() && !segments.isEmpty()) {
+            int[] segment = segments.get(random.nextInt(segments.size()));
+            sample.set(segment[0], segment[1]);
+        }
+        return sample;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "stream reduction: %d ms before each complex event, %.3f of the other segments", horizonMillis, negativeFraction);
+    }
+}
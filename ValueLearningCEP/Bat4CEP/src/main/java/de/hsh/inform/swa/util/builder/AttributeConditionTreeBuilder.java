@@ -129,7 +129,17 @@ public class AttributeConditionTreeBuilder {
     }
     // due to implementation-specific properties of Esper aggregation functions, 
     // this method ensures that all time windows within a rule are identical.
+    // A single repair can lead to new duplicates or broken aliases, so the rule is repaired until it does not change anymore.
+    // This way, repairing a repaired rule has no effect and rules can be used as keys after their repair.
     public static void repairAggregationWindowsInAct(Rule rule, EventHandler eh) {
+    	String repairedRule;
+    	do {
+    		repairedRule = rule.toString();
+    		repairRule(rule, eh);
+    	} while (!repairedRule.equals(rule.toString()));
+    }
+
+    private static void repairRule(Rule rule, EventHandler eh) {
     	if (eh != null) repairAct(rule, eh);
         Condition currentPosInAct = rule.getAttributeConditionTreeRoot();
         int i=1;
@@ -4,6 +4,7 @@ import java.security.SecureRandom;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -11,14 +12,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
-import java.util.Set;
 import java.util.concurrent.ThreadLocalRandom;
 import com.espertech.esper.client.Configuration;
 import com.espertech.esper.client.EPServiceProvider;
 import com.espertech.esper.client.EPServiceProviderManager;
 import com.espertech.esper.client.EPStatement;
-import com.espertech.esper.client.time.CurrentTimeEvent;
-import com.espertech.esper.client.time.TimerControlEvent;
 import com.espertech.esper.collection.Pair;
 
 import de.hsh.inform.swa.cep.Event;
@@ -29,7 +27,7 @@ import de.hsh.inform.swa.cep.windows.Window;
 import de.hsh.inform.swa.evaluation.EvaluationMeasures;
 import de.hsh.inform.swa.evaluation.EvaluationResult;
 import de.hsh.inform.swa.evaluation.EvaluationSubscriber;
-import de.hsh.inform.swa.evaluation.esper.WithoutGuard;
+import de.hsh.inform.swa.evaluation.esper.EsperReplayDriver;
 import de.hsh.inform.swa.evaluation.esper.EsperSubscriber;
 import de.hsh.inform.swa.evaluation.esper.EsperUtils;
 import de.hsh.inform.swa.evaluation.esper.EventHandlerUtils;
@@ -230,20 +228,14 @@ public class DataCreator {
         
         Configuration configuration = EventHandlerUtils.toEsperConfiguration(eh);
 
-        EPServiceProvider epServiceProvider = EPServiceProviderManager.getDefaultProvider(configuration);        
+        EPServiceProvider epServiceProvider = EPServiceProviderManager.getProvider(eh.hashCode() + "_DataCreator", configuration); // own engine per event stream
         
         EPStatement statement = EsperUtils.createStatement(epServiceProvider.getEPAdministrator(), rule);
         EvaluationSubscriber subscriber = new EvaluationSubscriber(eh);
         statement.setSubscriber(subscriber);
         statement.start();
 
-        epServiceProvider.getEPRuntime().sendEvent(new TimerControlEvent(TimerControlEvent.ClockType.CLOCK_EXTERNAL));
-
-        for (Event event : events) {
-            // esper doc: Catching up a Statement from Historical Data
-            epServiceProvider.getEPRuntime().sendEvent(new CurrentTimeEvent(event.getTimestamp()));
-            epServiceProvider.getEPRuntime().sendEvent(event.getAttributes(), event.getType());
-        }
+        new EsperReplayDriver(eh).replay(epServiceProvider, Collections.singleton(statement));
 
         int truePositives = subscriber.getTruePositives();
         int falsePositives = subscriber.getFalsePositives();
@@ -263,12 +255,14 @@ public class DataCreator {
         List<Event> result = new ArrayList<>();
         result.addAll(generatedEvents);
         Event[] events = generatedEvents.toArray(new Event[0]);
+        for (int i = 0; i < events.length; i++) {
+            events[i].setNumber(i); // before the payloads of the event handler are built
+        }
         EventHandler eh = new EventHandler(generatedEvents, COMPLEX_EVENT);
         
         Configuration configuration = EventHandlerUtils.toEsperConfiguration(eh);
-        WithoutGuard.initEvents(eh.getEventData());
 
-        EPServiceProvider epServiceProvider = EPServiceProviderManager.getDefaultProvider(configuration);        
+        EPServiceProvider epServiceProvider = EPServiceProviderManager.getProvider(eh.hashCode() + "_DataCreator", configuration); // own engine per event stream
         
         EPStatement statement = EsperUtils.createStatement(epServiceProvider.getEPAdministrator(), rule);
         EsperSubscriber subscriber = new EsperSubscriber();
@@ -276,25 +270,15 @@ public class DataCreator {
         statement.setSubscriber(subscriber);
         statement.start();
 
-        epServiceProvider.getEPRuntime().sendEvent(new TimerControlEvent(TimerControlEvent.ClockType.CLOCK_EXTERNAL));
-
-        for (int i = 0; i < events.length; i++) {
-            events[i].setNumber(i);
-        }
-
-        for (Event event : events) {
-            // esper doc: Catching up a Statement from Historical Data
-            epServiceProvider.getEPRuntime().sendEvent(new CurrentTimeEvent(event.getTimestamp()));
-            epServiceProvider.getEPRuntime().sendEvent(event.getAttributes(), event.getType());
-        }
+        new EsperReplayDriver(eh).replay(epServiceProvider, Collections.singleton(statement));
 
         statement.destroy();
         epServiceProvider.destroy();
 
-        Set<Integer> firedAt = subscriber.getFiredPosition();
+        BitSet firedAt = subscriber.getFiredPosition();
 
         int offset = 1;
-        for (int curVal : firedAt) {
+        for (int curVal = firedAt.nextSetBit(0); curVal >= 0; curVal = firedAt.nextSetBit(curVal + 1)) {
             Date ldt = Date.from(result.get(curVal + offset - 1).getTime().toInstant().plusSeconds(0));
 
             result.add(curVal + offset, new Event(rule.getAction().getComplexEvent().getType(), ldt));
@@ -0,0 +1,162 @@
+package de.hsh.inform.swa.evaluation.esper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.espertech.esper.client.EPServiceProvider;
+import com.espertech.esper.client.EPStatement;
+
+import de.hsh.inform.swa.cep.Action;
+import de.hsh.inform.swa.cep.AttributeOperator;
+import de.hsh.inform.swa.cep.ConstantAttribute;
+import de.hsh.inform.swa.cep.Event;
+import de.hsh.inform.swa.cep.EventAttribute;
+import de.hsh.inform.swa.cep.EventCondition;
+import de.hsh.inform.swa.cep.Rule;
+import de.hsh.inform.swa.cep.operators.attributes.comparison.GreaterThanAttributeComparisonOperator;
+import de.hsh.inform.swa.cep.operators.events.AndEventOperator;
+import de.hsh.inform.swa.cep.operators.events.SequenceEventOperator;
+import de.hsh.inform.swa.cep.windows.TimeWindow;
+import de.hsh.inform.swa.evaluation.EvaluationResult;
+import de.hsh.inform.swa.evaluation.EvaluationSubscriber;
+import de.hsh.inform.swa.evaluation.matcher.CompiledCondition;
+import de.hsh.inform.swa.evaluation.matcher.EventColumns;
+import de.hsh.inform.swa.evaluation.matcher.PatternAutomaton;
+import de.hsh.inform.swa.evaluation.matcher.ThresholdSweep;
+import de.hsh.inform.swa.util.EventHandler;
+/**
+ * Pattern statements deliver the events of a match under the aliases of their statement model, which are looked up with the aliases of the rule.
+ * The rules (B0=B -> A0=A) and A1=A and A0=A and (B0=B -> A1=A) have the same pattern in normal form, but A1 is another event in each of them.
+ * @author Software Architecture Research Group
+ *
+ */
+public class PatternStatementTest {
+    private static final int EVENTS = 3000;
+
+    private static EventHandler eh;
+    private static EventColumns columns;
+    private static EsperEnginePool pool;
+    private static EPServiceProvider engine;
+
+    @BeforeClass
+    public static void setUp() {
+        Random random = new Random(1);
+        List<Event> events = new ArrayList<>();
+        long time = 1_600_000_000_000L;
+        for (int i = 0; i < EVENTS; i++) {
+            time += 1000;
+            String type = random.nextInt(10) == 0 ? "HIT" : random.nextBoolean() ? "A" : "B";
+            Map<String, Object> attributes = new HashMap<>();
+            if (!type.equals("HIT")) {
+                attributes.put("TEMP", (double) random.nextInt(100));
+            }
+            Event event = new Event(type, new Date(time), attributes);
+            event.setNumber(i);
+            events.add(event);
+        }
+        eh = new EventHandler(events, new Event("HIT"));
+        columns = new EventColumns(eh);
+        pool = new EsperEnginePool();
+        engine = pool.acquire(eh, 1)[0];
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        pool.destroy();
+    }
+
+    @Before
+    public void reset() {
+        EsperEnginePool.reset(engine);
+    }
+
+    @Test
+    public void reorderedPatternsHaveTheirOwnAliases() {
+        Rule first = getRule(true), second = getRule(false);
+        assertEquals(getPatternOnly(first).getCanonicalForm(), getPatternOnly(second).getCanonicalForm());
+        assertNotEquals(EsperUtils.toEPL(getPatternOnly(first)), EsperUtils.toEPL(getPatternOnly(second)));
+    }
+
+    @Test
+    public void patternGroupReadsTheEventsOfItsOwnAliases() {
+        EsperUtils.createStatement(engine.getEPAdministrator(), getPatternOnly(getRule(true))).destroy();
+        Rule rule = getRule(false);
+        PatternAutomaton pattern = new PatternAutomaton(rule.getEventConditionTreeRoot(), rule.getWindow(), columns);
+        EvaluationSubscriber grouped = new EvaluationSubscriber(eh);
+        EPStatement patternStatement = createStatement(getPatternOnly(rule), new PatternGroupSubscriber(pattern,
+                new CompiledCondition[] { new CompiledCondition(rule.getAttributeConditionTreeRoot(), pattern, columns) }, new EsperSubscriber[] { grouped }));
+        EvaluationSubscriber own = new EvaluationSubscriber(eh);
+        EPStatement ruleStatement = createStatement(rule, own);
+
+        new EsperReplayDriver(eh).replay(engine, Arrays.asList(patternStatement, ruleStatement));
+        assertEquals(own.getFiredPosition(), grouped.getFiredPosition());
+    }
+
+    @Test
+    public void recordedMatchesHoldTheEventsOfTheirOwnAliases() {
+        EsperUtils.createStatement(engine.getEPAdministrator(), getPatternOnly(getRule(true))).destroy();
+        Rule rule = getRule(false);
+        MatchTupleStore store = new MatchTupleStore(new PatternAutomaton(rule.getEventConditionTreeRoot(), rule.getWindow(), columns));
+        EPStatement patternStatement = createStatement(getPatternOnly(rule), store);
+        EvaluationSubscriber own = new EvaluationSubscriber(eh);
+        EPStatement ruleStatement = createStatement(rule, own);
+
+        new EsperReplayDriver(eh).replay(engine, Arrays.asList(patternStatement, ruleStatement));
+        assertEquals(own.getFiredPosition(), store.evaluate(new CompiledCondition(rule.getAttributeConditionTreeRoot(), store.getPattern(), columns)));
+    }
+
+    @Test
+    public void sweptConstantIsComparedWithTheEventOfItsOwnAlias() {
+        EsperUtils.createStatement(engine.getEPAdministrator(), getPatternOnly(getRule(true))).destroy();
+        Rule rule = getRule(false);
+        AttributeOperator comparison = new GreaterThanAttributeComparisonOperator(new EventAttribute("A1", "TEMP", null), new ConstantAttribute(50));
+        rule.setAttributeConditionTreeRoot(comparison);
+        MatchTupleStore store = new MatchTupleStore(new PatternAutomaton(rule.getEventConditionTreeRoot(), rule.getWindow(), columns));
+        new EsperReplayDriver(eh).replay(engine, Collections.singletonList(createStatement(getPatternOnly(rule), store)));
+        ThresholdSweep sweep = new ThresholdSweep(comparison, comparison, store.getPattern(), columns);
+        store.replay(sweep);
+        EvaluationResult swept = sweep.apply(eh);
+
+        EsperEnginePool.reset(engine);
+        EvaluationSubscriber own = new EvaluationSubscriber(eh);
+        new EsperReplayDriver(eh).replay(engine, Collections.singletonList(createStatement(rule, own)));
+        EvaluationResult result = own.getResult(EVENTS);
+        assertEquals(result.getTruePositives(), swept.getTruePositives());
+        assertEquals(result.getFalsePositives(), swept.getFalsePositives());
+    }
+
+    // ((B0=B -> A0=A) and A1=A) or (A0=A and (B0=B -> A1=A)) where A1.TEMP > A0.TEMP
+    private static Rule getRule(boolean sequenceFirst) {
+        EventCondition sequence = new SequenceEventOperator(new Event("B"), new Event("A"));
+        EventCondition ect = sequenceFirst ? new AndEventOperator(sequence, new Event("A")) : new AndEventOperator(new Event("A"), sequence);
+        Rule rule = new Rule(ect, new TimeWindow(5, ChronoUnit.SECONDS, 1, 10), new Action(new Event("HIT")));
+        rule.setAttributeConditionTreeRoot(new GreaterThanAttributeComparisonOperator(new EventAttribute("A1", "TEMP", null), new EventAttribute("A0", "TEMP", null)));
+        return rule;
+    }
+
+    private static Rule getPatternOnly(Rule rule) {
+        return new Rule(rule.getEventConditionTreeRoot().copy(), rule.getWindow().copy(), rule.getAction());
+    }
+
+    private static EPStatement createStatement(Rule rule, Object subscriber) {
+        EPStatement statement = EsperUtils.createStatement(engine.getEPAdministrator(), rule);
+        statement.setSubscriber(subscriber);
+        statement.start();
+        return statement;
+    }
+}